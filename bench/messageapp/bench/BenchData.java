@@ -0,0 +1,113 @@
+package messageapp.bench;
+
+import messageapp.Message;
+import messageapp.MessageManager;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic test data for the benchmarks. Generated files are cached under
+ * -Dbench.data.dir (default: java.io.tmpdir/messageapp-bench) and reused across runs.
+ */
+final class BenchData {
+
+    static final int RECIPIENTS = 10_000;
+    static final int SENDERS = 2_000;
+
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+    private static final String[] WORDS = {
+        "where", "are", "you", "late", "ok", "leaving", "without", "meeting", "call", "me",
+        "tonight", "tomorrow", "please", "thanks", "send", "the", "report", "on", "time", "again"
+    };
+
+    private BenchData() {}
+
+    static String recipient(int i) { return String.format("+2783%07d", i % RECIPIENTS); }
+    static String sender(int i) { return String.format("+2782%07d", i % SENDERS); }
+
+    static List<Message> messages(int count) {
+        Random rnd = new Random(42);
+        List<Message> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            out.add(new Message(Integer.toString(i), sender(rnd.nextInt(SENDERS)), recipient(rnd.nextInt(RECIPIENTS)),
+                    text(rnd), FLAGS[rnd.nextInt(FLAGS.length)]));
+        }
+        return out;
+    }
+
+    static MessageManager manager(int count) {
+        MessageManager mgr = new MessageManager();
+        mgr.addAll(messages(count));
+        return mgr;
+    }
+
+    /** JSON array in the stored_message.json shape with count messages. */
+    static Path jsonFile(int count) {
+        Path path = dataDir().resolve("messages-" + count + ".json");
+        if (Files.exists(path)) return path;
+        Random rnd = new Random(42);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write("[\n");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) w.write(",\n");
+                w.write("  {\"messageId\": \"" + i + "\", \"sender\": \"" + sender(rnd.nextInt(SENDERS))
+                        + "\", \"recipient\": \"" + recipient(rnd.nextInt(RECIPIENTS))
+                        + "\", \"text\": \"" + text(rnd) + "\", \"flag\": \"" + FLAGS[rnd.nextInt(FLAGS.length)] + "\"}");
+            }
+            w.write("\n]\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tmp, path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return path;
+    }
+
+    /** Snapshot of the same data as jsonFile(count). */
+    static Path snapshotFile(int count) {
+        Path path = dataDir().resolve("messages-" + count + ".snap");
+        if (Files.exists(path)) return path;
+        try {
+            MessageManager mgr = new MessageManager();
+            mgr.readStoredMessagesFromJson(jsonFile(count).toString());
+            mgr.writeSnapshot(path.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return path;
+    }
+
+    private static String text(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int words = 3 + rnd.nextInt(20);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static Path dataDir() {
+        Path dir = Paths.get(System.getProperty("bench.data.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "messageapp-bench").toString()));
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dir;
+    }
+}
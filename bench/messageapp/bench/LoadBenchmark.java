@@ -0,0 +1,47 @@
+package messageapp.bench;
+
+import messageapp.MessageManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of a whole store: streamed JSON versus the binary snapshot of the same data.
+ * Data files are generated once per size (see BenchData); 10M messages needs a large heap.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int messages;
+
+    private Path json;
+    private Path snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        json = BenchData.jsonFile(messages);
+        snapshot = BenchData.snapshotFile(messages);
+    }
+
+    @Benchmark
+    public MessageManager readStoredMessagesFromJson() throws IOException {
+        MessageManager mgr = new MessageManager();
+        mgr.readStoredMessagesFromJson(json.toString());
+        return mgr;
+    }
+
+    @Benchmark
+    public MessageManager readSnapshot() throws IOException {
+        MessageManager mgr = new MessageManager();
+        mgr.readSnapshot(snapshot.toString());
+        return mgr;
+    }
+}
@@ -0,0 +1,50 @@
+package messageapp.bench;
+
+import messageapp.HashStrategy;
+import messageapp.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of building a Message and computing its hash. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+    private static final String TEXT = "Where are you? You are late! I have asked you to be on time.";
+
+    private int seq;
+
+    @Benchmark
+    public String constructAndHashSha256() {
+        return new Message(Integer.toString(seq++), "Unknown", "+27838884567", TEXT, Message.Flag.STORED).getHash();
+    }
+
+    @Benchmark
+    public String constructAndHashMurmur() {
+        return new Message(Integer.toString(seq++), "Unknown", "+27838884567", TEXT, Message.Flag.STORED,
+                HashStrategy.MURMUR3_128).getHash();
+    }
+
+    /** No-arg constructor plus four setters; with lazy hashing this still hashes once. */
+    @Benchmark
+    public String settersThenHash() {
+        Message m = new Message();
+        m.setMessageId(Integer.toString(seq++));
+        m.setSender("Unknown");
+        m.setRecipient("+27838884567");
+        m.setText(TEXT);
+        m.setFlag(Message.Flag.STORED);
+        return m.getHash();
+    }
+
+    @Benchmark
+    public Message builder() {
+        return Message.builder().messageId(Integer.toString(seq++)).sender("Unknown").recipient("+27838884567")
+                .text(TEXT).flag(Message.Flag.STORED).build();
+    }
+}
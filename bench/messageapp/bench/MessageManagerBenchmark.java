@@ -0,0 +1,75 @@
+package messageapp.bench;
+
+import messageapp.Message;
+import messageapp.MessageManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageManager operations against a pre-filled store of the given size.
+ * The store must stay the same size across invocations, so add and delete are
+ * measured as pairs (add then delete, delete then re-add).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MessageManagerBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private MessageManager mgr;
+    private List<Message> existing;
+    private int seq;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        existing = BenchData.messages(size);
+        mgr = new MessageManager();
+        mgr.addAll(existing);
+    }
+
+    @Benchmark
+    public boolean addMessage() {
+        Message m = new Message("bench-" + seq++, BenchData.sender(seq), BenchData.recipient(seq), "benchmark text", Message.Flag.SENT);
+        mgr.addMessage(m);
+        return mgr.deleteByHash(m.getHash());
+    }
+
+    @Benchmark
+    public boolean deleteByHash() {
+        Message m = existing.get(seq++ % size);
+        boolean removed = mgr.deleteByHash(m.getHash());
+        mgr.addMessage(new Message(m.getMessageId(), m.getSender(), m.getRecipient(), m.getText(), m.getFlag()));
+        return removed;
+    }
+
+    @Benchmark
+    public Optional<Message> findByMessageId() {
+        return mgr.findByMessageId(Integer.toString(seq++ % size));
+    }
+
+    @Benchmark
+    public List<Message> findAllByRecipient() {
+        return mgr.findAllByRecipient(existing.get(seq++ % size).getRecipient());
+    }
+
+    @Benchmark
+    public List<Message> findByRecipientFirstPage() {
+        return mgr.findByRecipient(existing.get(seq++ % size).getRecipient(), null, 0, 20);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public String getSentMessagesReport() {
+        return mgr.getSentMessagesReport();
+    }
+}
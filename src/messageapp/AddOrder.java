@@ -0,0 +1,188 @@
+package messageapp;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Add order of the messages in a store split over several MessageManagers (stripes or
+ * shards), kept beside the parts rather than on Message, so merged results can come back
+ * in add order as they do from a single MessageManager.
+ *
+ * Numbers come from one counter. A message lives in exactly one part and is recorded and
+ * forgotten under that part's write lock and read under its read lock, so each entry is
+ * only ever touched under one lock. A part's lists are in commit order, which matches
+ * number order only if numbers are taken under the part's lock; when producers take them
+ * first and then race for the lock, merge sorts rather than trusting each part's order.
+ */
+final class AddOrder {
+
+    private final AtomicLong next = new AtomicLong();
+    // Message keeps Object's identity equals and hashCode, so this is keyed by instance.
+    // The value is a Long, or an ascending long[] once the same instance is added again.
+    private final Map<Message, Object> numbers = new ConcurrentHashMap<>();
+
+    /** Reserves count consecutive numbers and returns the first. */
+    long reserve(int count) {
+        return next.getAndAdd(count);
+    }
+
+    /** Records that m was added to a part with this number. */
+    void record(Message m, long number) {
+        numbers.merge(m, number, AddOrder::append);
+    }
+
+    /**
+     * Records the numbers of the batch messages a part kept after addAll, which may have
+     * dropped some as duplicates; call under the part's write lock.
+     */
+    void recordAdded(MessageManager part, List<Message> batch, List<Long> numbers, int added) {
+        for (int i = 0; i < batch.size(); i++) {
+            Message m = batch.get(i);
+            if (added == batch.size() || containsInstance(part.withHash(m.getHash()), m)) record(m, numbers.get(i));
+        }
+    }
+
+    /** Whether m has a number. */
+    boolean has(Message m) {
+        return numbers.containsKey(m);
+    }
+
+    /** Drops m's numbers; call once m has left its part. */
+    void forget(Message m) {
+        numbers.remove(m);
+    }
+
+    /** Copies messages read from one part along with their numbers; call under that part's lock. */
+    Run run(List<Message> messages) {
+        Message[] copy = messages.toArray(new Message[0]);
+        long[] keys = new long[copy.length];
+        Map<Message, Integer> seen = null;
+        for (int i = 0; i < copy.length; i++) {
+            if (seen == null && numbers.get(copy[i]) instanceof long[]) seen = new IdentityHashMap<>();
+            keys[i] = numberOf(copy[i], seen);
+        }
+        return new Run(copy, keys);
+    }
+
+    /** The runs' messages sorted by number; the runs are mostly sorted already, which TimSort exploits. */
+    static List<Message> merge(List<Run> runs) {
+        int size = 0;
+        for (Run r : runs) size += r.messages.length;
+        Message[] messages = new Message[size];
+        long[] keys = new long[size];
+        Integer[] byKey = new Integer[size];
+        int n = 0;
+        for (Run r : runs) {
+            System.arraycopy(r.messages, 0, messages, n, r.messages.length);
+            System.arraycopy(r.keys, 0, keys, n, r.keys.length);
+            n += r.messages.length;
+        }
+        for (int i = 0; i < size; i++) byKey[i] = i;
+        Arrays.sort(byKey, Comparator.comparingLong(i -> keys[i]));
+        List<Message> out = new ArrayList<>(size);
+        for (int i : byKey) out.add(messages[i]);
+        return out;
+    }
+
+    /**
+     * Walks the parts' live lists in add order without copying them, by merging their
+     * heads, so it needs each part to commit in number order. The caller holds every
+     * part's read lock until it is done iterating.
+     */
+    Iterator<Message> inAddOrder(List<? extends List<Message>> parts) {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>();
+        for (int i = 0; i < parts.size(); i++) {
+            List<Message> part = parts.get(i);
+            Map<Message, Integer> seen = new IdentityHashMap<>();
+            Cursor c = new Cursor(i, part.size(), k -> numberOf(part.get(k), seen));
+            if (c.hasNext()) heads.add(c);
+        }
+        return new Iterator<Message>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Message next() {
+                Cursor c = heads.poll();
+                if (c == null) throw new NoSuchElementException();
+                Message m = parts.get(c.part).get(c.pos);
+                if (c.advance()) heads.add(c);
+                return m;
+            }
+        };
+    }
+
+    // The k-th occurrence of an instance in one part's list gets its k-th number; seen
+    // counts occurrences and is only needed once an instance has more than one number.
+    private long numberOf(Message m, Map<Message, Integer> seen) {
+        Object n = numbers.get(m);
+        if (n == null) return Long.MAX_VALUE;
+        if (n instanceof Long) return (Long) n;
+        long[] all = (long[]) n;
+        int k = seen.merge(m, 1, Integer::sum) - 1;
+        return all[Math.min(k, all.length - 1)];
+    }
+
+    private static boolean containsInstance(List<Message> messages, Message m) {
+        for (Message x : messages) if (x == m) return true;
+        return false;
+    }
+
+    private static Object append(Object old, Object number) {
+        long n = (Long) number;
+        if (old instanceof Long) return new long[]{(Long) old, n};
+        long[] all = Arrays.copyOf((long[]) old, ((long[]) old).length + 1);
+        all[all.length - 1] = n;
+        return all;
+    }
+
+    /** Messages copied from one part, with the number of each. */
+    static final class Run {
+        final Message[] messages;
+        final long[] keys;
+
+        private Run(Message[] messages, long[] keys) {
+            this.messages = messages;
+            this.keys = keys;
+        }
+    }
+
+    private interface KeyAt {
+        long key(int index);
+    }
+
+    // Head of one part in inAddOrder's merge; ties go to the lower part.
+    private static final class Cursor implements Comparable<Cursor> {
+        final int part;
+        final int size;
+        final KeyAt keyAt;
+        int pos;
+        long key;
+
+        Cursor(int part, int size, KeyAt keyAt) {
+            this.part = part;
+            this.size = size;
+            this.keyAt = keyAt;
+            if (size > 0) key = keyAt.key(0);
+        }
+
+        boolean hasNext() {
+            return pos < size;
+        }
+
+        boolean advance() {
+            if (++pos >= size) return false;
+            key = keyAt.key(pos);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            int c = Long.compare(key, o.key);
+            return c != 0 ? c : Integer.compare(part, o.part);
+        }
+    }
+}
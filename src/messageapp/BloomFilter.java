@@ -0,0 +1,73 @@
+package messageapp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bloom filter over message hash strings, used by MessageManager's dedup mode to skip
+ * the index probe for messages that are certainly new.
+ *
+ * Hex hashes of 128 bits or more are already uniformly distributed, so their first 32
+ * hex digits feed the double hashing directly; anything else is run through murmur3.
+ * Bits are never cleared, so deleted hashes only cost an extra probe.
+ */
+final class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long capacity;
+    private long insertions;
+
+    /** Sized for expectedInsertions at the given false-positive probability. */
+    BloomFilter(long expectedInsertions, double fpp) {
+        if (fpp <= 0 || fpp >= 1) throw new IllegalArgumentException("fpp must be in (0, 1)");
+        capacity = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) & ~63L);
+        bitCount = m;
+        bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, m >>> 6)];
+        hashCount = Math.max(1, (int) Math.round((double) m / capacity * Math.log(2)));
+    }
+
+    void put(String hash) {
+        long[] h = keys(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h, i);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        insertions++;
+    }
+
+    boolean mightContain(String hash) {
+        long[] h = keys(hash);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h, i);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /** True once more keys went in than the filter was sized for. */
+    boolean isSaturated() {
+        return insertions > capacity;
+    }
+
+    long getCapacity() { return capacity; }
+
+    private long index(long[] h, int i) {
+        return Long.remainderUnsigned(h[0] + i * h[1], Math.min(bitCount, (long) bits.length << 6));
+    }
+
+    private static long[] keys(String hash) {
+        if (hash.length() >= 32) {
+            try {
+                return new long[]{Long.parseUnsignedLong(hash, 0, 16, 16), Long.parseUnsignedLong(hash, 16, 32, 16) | 1};
+            } catch (NumberFormatException notHex) {
+                // fall through
+            }
+        }
+        long[] h = Hashing.murmur3x64_128(hash.getBytes(StandardCharsets.UTF_8), 0);
+        h[1] |= 1;
+        return h;
+    }
+}
@@ -0,0 +1,333 @@
+package messageapp;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Columnar, low-overhead message store for large, read-mostly data sets.
+ *
+ * Each message is a row: hash as raw digest bytes in off-heap buffers, sender and
+ * recipient as ints into shared dictionaries (phone numbers repeat heavily), flag as a
+ * byte, and messageId/text as plain string columns. A Message object is only created
+ * when a row is read, from the stored hash, so reads never re-hash.
+ *
+ * The hash column is split into direct buffers of CHUNK_ROWS rows each, so growing it
+ * never copies and no offset overflows an int. Hash and messageId lookups go through
+ * open-addressing tables of row numbers, keyed by the first eight hash bytes and by
+ * the messageId's hashCode. Deleted rows are tombstoned; the per-flag views skip them.
+ * A store holds at most MAX_ROWS rows.
+ */
+public class CompactMessageStore {
+
+    private static final byte DELETED = -1;
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    static final int MAX_ROWS = 1 << 30;  // row tables must stay below 2^31 slots
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+
+    private final HashStrategy hashStrategy;
+    private final int hashWidth;
+
+    private final List<ByteBuffer> hashChunks = new ArrayList<>();
+    private String[] messageIds = new String[16];
+    private String[] texts = new String[16];
+    private int[] senders = new int[16];
+    private int[] recipients = new int[16];
+    private byte[] flags = new byte[16];
+    private int rows;
+    private final int[] liveByFlag = new int[FLAGS.length];
+
+    private final Dictionary senderDict = new Dictionary();
+    private final Dictionary recipientDict = new Dictionary();
+
+    private final RowTable byHash = new RowTable(row -> spread(rowHash(row)));
+    private final RowTable byMessageId = new RowTable(row -> Objects.hashCode(messageIds[row]));
+
+    // per-flag row lists, rebuilt lazily after deletes
+    private final int[][] flagRows = new int[FLAGS.length][];
+    private final int[] flagRowCount = new int[FLAGS.length];
+
+    public CompactMessageStore() {
+        this(HashStrategy.SHA_256);
+    }
+
+    public CompactMessageStore(HashStrategy hashStrategy) {
+        this.hashStrategy = Objects.requireNonNull(hashStrategy);
+        this.hashWidth = hashStrategy.hash("").length() / 2;
+        for (int f = 0; f < FLAGS.length; f++) flagRows[f] = new int[16];
+    }
+
+    /** Copies every message of the manager into a new compact store. */
+    public static CompactMessageStore of(MessageManager mgr) {
+        CompactMessageStore store = new CompactMessageStore(mgr.getHashStrategy());
+        store.addAll(mgr.getSentMessages());
+        store.addAll(mgr.getStoredMessages());
+        store.addAll(mgr.getDisregardedMessages());
+        return store;
+    }
+
+    public HashStrategy getHashStrategy() { return hashStrategy; }
+
+    public void addAll(Collection<? extends Message> messages) {
+        messages.parallelStream().forEach(m -> MessageManager.adopt(m, hashStrategy));
+        for (Message m : messages) add(m);
+    }
+
+    public void add(Message m) {
+        byte[] hash = hashBytes(MessageManager.adopt(m, hashStrategy));
+        if (rows == MAX_ROWS) throw new IllegalStateException("CompactMessageStore is full (" + MAX_ROWS + " rows)");
+        ensureRowCapacity(rows + 1);
+        int row = rows++;
+        hashChunk(row).put(hashOffset(row), hash);
+        messageIds[row] = m.getMessageId();
+        texts[row] = m.getText();
+        senders[row] = senderDict.encode(m.getSender());
+        recipients[row] = recipientDict.encode(m.getRecipient());
+        int f = m.getFlag().ordinal();
+        flags[row] = (byte) f;
+        liveByFlag[f]++;
+        appendFlagRow(f, row);
+        byHash.insert(row, spread(hash));
+        byMessageId.insert(row, Objects.hashCode(m.getMessageId()));
+    }
+
+    public int size() {
+        int n = 0;
+        for (int c : liveByFlag) n += c;
+        return n;
+    }
+
+    public int count(Message.Flag flag) { return liveByFlag[flag.ordinal()]; }
+
+    public List<Message> getSentMessages() { return view(Message.Flag.SENT); }
+    public List<Message> getStoredMessages() { return view(Message.Flag.STORED); }
+    public List<Message> getDisregardedMessages() { return view(Message.Flag.DISREGARD); }
+
+    public Optional<Message> findByHash(String hash) {
+        int row = findRow(hash);
+        return row < 0 ? Optional.empty() : Optional.of(materialise(row));
+    }
+
+    /** Same precedence as MessageManager: sent, then stored, then disregarded. */
+    public Optional<Message> findByMessageId(String messageId) {
+        int[] best = {-1};
+        byMessageId.probe(Objects.hashCode(messageId), row -> {
+            if (!Objects.equals(messageId, messageIds[row])) return false;
+            if (best[0] < 0 || flags[row] < flags[best[0]] || (flags[row] == flags[best[0]] && row < best[0])) best[0] = row;
+            return false;  // keep probing: the id may occur on several rows
+        });
+        return best[0] < 0 ? Optional.empty() : Optional.of(materialise(best[0]));
+    }
+
+    /** Sent and stored messages for the recipient; compares dictionary codes, not strings. */
+    public List<Message> findAllByRecipient(String recipient) {
+        int code = recipientDict.lookup(recipient);
+        List<Message> out = new ArrayList<>();
+        if (code < 0) return out;
+        for (Message.Flag flag : new Message.Flag[]{Message.Flag.SENT, Message.Flag.STORED}) {
+            int f = flag.ordinal();
+            compactFlagRows(f);
+            for (int i = 0; i < flagRowCount[f]; i++) {
+                int row = flagRows[f][i];
+                if (recipients[row] == code) out.add(materialise(row));
+            }
+        }
+        return out;
+    }
+
+    /** Deletes every row with this hash. */
+    public boolean deleteByHash(String hash) {
+        boolean removed = false;
+        int row;
+        while ((row = findRow(hash)) >= 0) {
+            byHash.remove(row, spread(rowHash(row)));
+            byMessageId.remove(row, Objects.hashCode(messageIds[row]));
+            liveByFlag[flags[row]]--;
+            flags[row] = DELETED;
+            messageIds[row] = null;
+            texts[row] = null;
+            removed = true;
+        }
+        return removed;
+    }
+
+    private Message materialise(int row) {
+        return Message.restore(messageIds[row], senderDict.decode(senders[row]), recipientDict.decode(recipients[row]),
+                texts[row], FLAGS[flags[row]], hashStrategy, Hashing.toHex(rowHash(row)));
+    }
+
+    private List<Message> view(Message.Flag flag) {
+        int f = flag.ordinal();
+        return new AbstractList<Message>() {
+            @Override
+            public Message get(int index) {
+                compactFlagRows(f);
+                Objects.checkIndex(index, flagRowCount[f]);
+                return materialise(flagRows[f][index]);
+            }
+
+            @Override
+            public int size() {
+                return liveByFlag[f];
+            }
+        };
+    }
+
+    private void appendFlagRow(int f, int row) {
+        if (flagRowCount[f] == flagRows[f].length) flagRows[f] = Arrays.copyOf(flagRows[f], flagRowCount[f] * 2);
+        flagRows[f][flagRowCount[f]++] = row;
+    }
+
+    private void compactFlagRows(int f) {
+        if (flagRowCount[f] == liveByFlag[f]) return;
+        int w = 0;
+        for (int i = 0; i < flagRowCount[f]; i++) {
+            int row = flagRows[f][i];
+            if (flags[row] != DELETED) flagRows[f][w++] = row;
+        }
+        flagRowCount[f] = w;
+    }
+
+    private void ensureRowCapacity(int capacity) {
+        while (hashChunks.size() * (long) CHUNK_ROWS < capacity) {
+            hashChunks.add(ByteBuffer.allocateDirect(CHUNK_ROWS * hashWidth));
+        }
+        if (capacity <= flags.length) return;
+        int n = (int) Math.min(MAX_ROWS, Math.max(capacity, flags.length * 2L));
+        messageIds = Arrays.copyOf(messageIds, n);
+        texts = Arrays.copyOf(texts, n);
+        senders = Arrays.copyOf(senders, n);
+        recipients = Arrays.copyOf(recipients, n);
+        flags = Arrays.copyOf(flags, n);
+    }
+
+    private ByteBuffer hashChunk(int row) {
+        return hashChunks.get(row >>> CHUNK_SHIFT);
+    }
+
+    private int hashOffset(int row) {
+        return (row & (CHUNK_ROWS - 1)) * hashWidth;
+    }
+
+    private byte[] hashBytes(String hex) {
+        if (hex.length() != hashWidth * 2) throw new IllegalArgumentException("Unexpected hash length: " + hex);
+        byte[] out = new byte[hashWidth];
+        for (int i = 0; i < hashWidth; i++) {
+            out[i] = (byte) Integer.parseInt(hex, 2 * i, 2 * i + 2, 16);
+        }
+        return out;
+    }
+
+    // ---------- row lookup tables ----------
+
+    private int findRow(String hash) {
+        if (hash == null || hash.length() != hashWidth * 2) return -1;
+        byte[] key = hashBytes(hash);
+        int[] found = {-1};
+        byHash.probe(spread(key), row -> {
+            if (!matches(row, key)) return false;
+            found[0] = row;
+            return true;
+        });
+        return found[0];
+    }
+
+    private boolean matches(int row, byte[] key) {
+        ByteBuffer chunk = hashChunk(row);
+        int base = hashOffset(row);
+        for (int i = 0; i < hashWidth; i++) if (chunk.get(base + i) != key[i]) return false;
+        return true;
+    }
+
+    private byte[] rowHash(int row) {
+        byte[] key = new byte[hashWidth];
+        hashChunk(row).get(hashOffset(row), key);
+        return key;
+    }
+
+    private static int spread(byte[] key) {
+        long h = 0;
+        for (int i = 0; i < Math.min(8, key.length); i++) h = (h << 8) | (key[i] & 0xff);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Open-addressing table of row numbers under an int key hash, linear probing.
+     * Slots hold row + 1; 0 is empty and -1 a tombstone that keeps probe chains intact.
+     */
+    private static final class RowTable {
+        private final IntUnaryOperator keyHashOfRow;  // for rehashing
+        private int[] slots = new int[64];
+        private int used;
+
+        RowTable(IntUnaryOperator keyHashOfRow) {
+            this.keyHashOfRow = keyHashOfRow;
+        }
+
+        /** Calls match for each row in the key hash's probe chain until it returns true. */
+        void probe(int keyHash, IntPredicate match) {
+            int mask = slots.length - 1;
+            for (int i = mix(keyHash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] > 0 && match.test(slots[i] - 1)) return;
+            }
+        }
+
+        void insert(int row, int keyHash) {
+            if ((used + 1) * 2L > slots.length) rehash(slots.length * 2);
+            int mask = slots.length - 1;
+            int i = mix(keyHash) & mask;
+            while (slots[i] > 0) i = (i + 1) & mask;
+            if (slots[i] == 0) used++;
+            slots[i] = row + 1;
+        }
+
+        void remove(int row, int keyHash) {
+            int mask = slots.length - 1;
+            for (int i = mix(keyHash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == row + 1) {
+                    slots[i] = -1;
+                    return;
+                }
+            }
+        }
+
+        private void rehash(int capacity) {
+            if (capacity <= 0) throw new IllegalStateException("row table cannot grow beyond " + slots.length + " slots");
+            int[] old = slots;
+            slots = new int[capacity];
+            used = 0;
+            for (int s : old) if (s > 0) insert(s - 1, keyHashOfRow.applyAsInt(s - 1));
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /** Bidirectional string <-> int code table; code -1 stands for null. */
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int encode(String s) {
+            if (s == null) return -1;
+            Integer code = codes.get(s);
+            if (code != null) return code;
+            codes.put(s, values.size());
+            values.add(s);
+            return values.size() - 1;
+        }
+
+        int lookup(String s) {
+            if (s == null) return -1;
+            Integer code = codes.get(s);
+            return code == null ? -1 : code;
+        }
+
+        String decode(int code) {
+            return code < 0 ? null : values.get(code);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package messageapp;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/**
+ * Thread-safe counterpart of MessageManager for multi-producer ingestion.
+ *
+ * Messages are spread over lock-striped MessageManager instances by hash, so producers
+ * only contend when they land on the same stripe and hashing happens outside any lock.
+ * deleteByHash touches exactly one stripe and is atomic. Whole-store reads take every
+ * stripe's read lock together and copy, so they see a consistent snapshot.
+ *
+ * Every message gets a global number when it is added, kept in an AddOrder beside the
+ * stripes, and merged results are ordered by it, so lists, reports and pages come back in
+ * add order as with MessageManager. Between producers racing on the same stripe that
+ * order is whichever took its number first.
+ */
+public class ConcurrentMessageManager {
+
+    private final HashStrategy hashStrategy;
+    private final MessageManager[] stripes;
+    private final ReadWriteLock[] locks;
+    private final AddOrder order = new AddOrder();
+
+    public ConcurrentMessageManager() {
+        this(HashStrategy.SHA_256, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public ConcurrentMessageManager(HashStrategy hashStrategy, int stripeCount) {
+        if (stripeCount <= 0) throw new IllegalArgumentException("stripeCount must be > 0");
+        this.hashStrategy = Objects.requireNonNull(hashStrategy);
+        int n = Integer.highestOneBit(stripeCount - 1) << 1;
+        if (n <= 0) n = 1;
+        stripes = new MessageManager[n];
+        locks = new ReadWriteLock[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new MessageManager(hashStrategy);
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public HashStrategy getHashStrategy() { return hashStrategy; }
+
+    /**
+     * Applies the policy to every stripe. Equal hashes always land on the same stripe,
+     * so per-stripe dedup is global.
+     */
+    public void setDedupPolicy(DedupPolicy policy, long expectedMessages) {
+        for (int s = 0; s < stripes.length; s++) {
+            locks[s].writeLock().lock();
+            try {
+                stripes[s].setDedupPolicy(policy, expectedMessages / stripes.length);
+            } finally {
+                locks[s].writeLock().unlock();
+            }
+        }
+    }
+
+    public long getDuplicatesSeen() {
+        long n = 0;
+        for (int s = 0; s < stripes.length; s++) n += read(s, MessageManager::getDuplicatesSeen);
+        return n;
+    }
+
+    /** @return false if the dedup policy dropped the message */
+    public boolean addMessage(Message m) {
+        int s = stripeOf(MessageManager.adopt(m, hashStrategy));
+        long number = order.reserve(1);
+        locks[s].writeLock().lock();
+        try {
+            if (!stripes[s].addMessage(m)) return false;
+            order.record(m, number);
+            return true;
+        } finally {
+            locks[s].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Hashes the batch in parallel, then takes each stripe's write lock once.
+     *
+     * @return number of messages added, i.e. not dropped as duplicates
+     */
+    public int addAll(Collection<? extends Message> messages) {
+        if (messages.isEmpty()) return 0;
+        messages.parallelStream().forEach(m -> MessageManager.adopt(m, hashStrategy));
+        List<List<Message>> byStripe = new ArrayList<>(stripes.length);
+        List<List<Long>> numbers = new ArrayList<>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            byStripe.add(new ArrayList<>());
+            numbers.add(new ArrayList<>());
+        }
+        long number = order.reserve(messages.size());
+        for (Message m : messages) {
+            int s = stripeOf(m.getHash());
+            byStripe.get(s).add(m);
+            numbers.get(s).add(number++);
+        }
+        int added = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            List<Message> part = byStripe.get(s);
+            if (part.isEmpty()) continue;
+            locks[s].writeLock().lock();
+            try {
+                int n = stripes[s].addAll(part);
+                order.recordAdded(stripes[s], part, numbers.get(s), n);
+                added += n;
+            } finally {
+                locks[s].writeLock().unlock();
+            }
+        }
+        return added;
+    }
+
+    public boolean deleteByHash(String hash) {
+        int s = stripeOf(hash);
+        locks[s].writeLock().lock();
+        try {
+            List<Message> gone = stripes[s].withHash(hash);
+            if (!stripes[s].deleteByHash(hash)) return false;
+            for (Message m : gone) order.forget(m);
+            return true;
+        } finally {
+            locks[s].writeLock().unlock();
+        }
+    }
+
+    public List<Message> getSentMessages() { return snapshot(MessageManager::getSentMessages); }
+    public List<Message> getStoredMessages() { return snapshot(MessageManager::getStoredMessages); }
+    public List<Message> getDisregardedMessages() { return snapshot(MessageManager::getDisregardedMessages); }
+
+    /** Distinct hashes in the order they were first added. */
+    public List<String> getMessageHashes() {
+        Set<String> out = new LinkedHashSet<>();
+        for (Message m : allMessages()) out.add(m.getHash());
+        return Collections.unmodifiableList(new ArrayList<>(out));
+    }
+
+    /** Distinct message IDs in the order they were first added. */
+    public List<String> getMessageIDs() {
+        Set<String> out = new LinkedHashSet<>();
+        for (Message m : allMessages()) if (m.getMessageId() != null) out.add(m.getMessageId());
+        return Collections.unmodifiableList(new ArrayList<>(out));
+    }
+
+    /**
+     * Read-only, formatted lazily per element over a snapshot of the sent messages, so
+     * unlike MessageManager's view it does not follow later adds and deletes.
+     */
+    public List<String> getSenderRecipientOfSent() {
+        List<Message> sent = getSentMessages();
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                Message m = sent.get(index);
+                return String.format("Sender: %s, Recipient: %s", m.getSender(), m.getRecipient());
+            }
+
+            @Override
+            public int size() {
+                return sent.size();
+            }
+        };
+    }
+
+    /** Combines each stripe's maintained longest; the earliest added wins a tie. */
+    public Optional<Message> getLongestSentMessage() {
+        Message best = null;
+        long bestNumber = Long.MAX_VALUE;
+        for (int s = 0; s < stripes.length; s++) {
+            AddOrder.Run longest = read(s, mm -> order.run(asList(mm.getStats().getLongest(Message.Flag.SENT))));
+            if (longest.messages.length == 0) continue;
+            Message m = longest.messages[0];
+            int cmp = best == null ? 1 : Integer.compare(length(m), length(best));
+            if (cmp > 0 || (cmp == 0 && longest.keys[0] < bestNumber)) {
+                best = m;
+                bestNumber = longest.keys[0];
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    public String getSentMessagesReport() {
+        return MessageManager.buildSentReport(getSentMessages());
+    }
+
+    public Optional<Message> findByMessageId(String messageId) {
+        List<AddOrder.Run> found = new ArrayList<>();
+        for (int s = 0; s < stripes.length; s++) found.add(read(s, mm -> order.run(asList(mm.findByMessageId(messageId)))));
+        return MessageManager.byFlagPrecedence(AddOrder.merge(found));
+    }
+
+    public List<Message> findAllByRecipient(String recipient) {
+        List<Message> out = new ArrayList<>();
+        out.addAll(findByRecipient(recipient, Message.Flag.SENT, 0, Integer.MAX_VALUE));
+        out.addAll(findByRecipient(recipient, Message.Flag.STORED, 0, Integer.MAX_VALUE));
+        return out;
+    }
+
+    public List<Message> findByRecipient(String recipient, Message.Flag flag, int offset, int limit) {
+        int end = MessageManager.pageEnd(offset, limit);
+        return pageAcrossStripes(mm -> mm.findByRecipient(recipient, flag, 0, end), offset, limit);
+    }
+
+    public List<Message> findBySender(String sender, Message.Flag flag, int offset, int limit) {
+        int end = MessageManager.pageEnd(offset, limit);
+        return pageAcrossStripes(mm -> mm.findBySender(sender, flag, 0, end), offset, limit);
+    }
+
+    public void readStoredMessagesFromJson(String pathToJson) throws IOException {
+        readStoredMessagesFromJson(pathToJson, null);
+    }
+
+    /** Same streaming format as MessageManager; safe to call while other threads query or add. */
+    public long readStoredMessagesFromJson(String pathToJson, LongConsumer progress) throws IOException {
+        return MessageManager.readJsonBatches(pathToJson, hashStrategy, this::addAll, progress);
+    }
+
+    private int stripeOf(String hash) {
+        int h = hash.hashCode();
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    private <T> T read(int s, Function<MessageManager, T> query) {
+        locks[s].readLock().lock();
+        try {
+            return query.apply(stripes[s]);
+        } finally {
+            locks[s].readLock().unlock();
+        }
+    }
+
+    private List<Message> allMessages() {
+        return snapshot(mm -> {
+            List<Message> out = new ArrayList<>(mm.getSentMessages());
+            out.addAll(mm.getStoredMessages());
+            out.addAll(mm.getDisregardedMessages());
+            return out;
+        });
+    }
+
+    private static List<Message> asList(Optional<Message> m) {
+        return m.map(Collections::singletonList).orElse(Collections.emptyList());
+    }
+
+    private static int length(Message m) {
+        return m.getText() == null ? 0 : m.getText().length();
+    }
+
+    /** Copies every stripe's view under all the read locks, then merges them in add order. */
+    private List<Message> snapshot(Function<MessageManager, List<Message>> view) {
+        List<AddOrder.Run> runs = new ArrayList<>(stripes.length);
+        for (ReadWriteLock l : locks) l.readLock().lock();
+        try {
+            for (MessageManager mm : stripes) runs.add(order.run(view.apply(mm)));
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) locks[i].readLock().unlock();
+        }
+        return Collections.unmodifiableList(AddOrder.merge(runs));
+    }
+
+    private List<Message> pageAcrossStripes(Function<MessageManager, List<Message>> query, int offset, int limit) {
+        List<AddOrder.Run> runs = new ArrayList<>(stripes.length);
+        for (int s = 0; s < stripes.length; s++) runs.add(read(s, mm -> order.run(query.apply(mm))));
+        return MessageManager.pageOf(AddOrder.merge(runs), offset, limit);
+    }
+}
@@ -0,0 +1,15 @@
+package messageapp;
+
+/** What MessageManager does with a message whose hash is already stored. */
+public enum DedupPolicy {
+    /** Store it anyway; the original behaviour. */
+    KEEP_ALL,
+    /** Drop the incoming message. */
+    REJECT,
+    /**
+     * Drop the incoming message, but move the stored one to the incoming flag if it
+     * differs (the hash does not cover the flag, so e.g. a stored message re-imported
+     * as sent becomes sent).
+     */
+    MERGE
+}
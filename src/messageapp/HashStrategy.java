@@ -0,0 +1,24 @@
+package messageapp;
+
+/**
+ * How a Message turns its fields into a hash. Chosen per MessageManager.
+ */
+public enum HashStrategy {
+    /** SHA-256 as 64 hex chars. Use when the hash also serves as an integrity check. */
+    SHA_256 {
+        @Override
+        public String hash(String base) {
+            return Hashing.sha256Hex(base);
+        }
+    },
+    /** MurmurHash3 x64 128-bit as 32 hex chars. Much faster, but only fit for dedup. */
+    MURMUR3_128 {
+        @Override
+        public String hash(String base) {
+            return Hashing.murmur3Hex(base);
+        }
+    };
+
+    /** Hex hash of the given string, or null if the algorithm is unavailable. */
+    public abstract String hash(String base);
+}
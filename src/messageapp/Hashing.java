@@ -0,0 +1,121 @@
+package messageapp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashing helpers behind HashStrategy. Keeps one SHA-256 digest per thread so
+ * parallel imports don't pay MessageDigest.getInstance per message.
+ */
+final class Hashing {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    });
+
+    private Hashing() {}
+
+    /** SHA-256 of the UTF-8 bytes as lower-case hex, or null if the JVM has no SHA-256. */
+    static String sha256Hex(String base) {
+        MessageDigest md = SHA_256.get();
+        if (md == null) return null;
+        return toHex(md.digest(base.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** MurmurHash3 x64 128-bit (seed 0) of the UTF-8 bytes as lower-case hex. */
+    static String murmur3Hex(String base) {
+        byte[] data = base.getBytes(StandardCharsets.UTF_8);
+        long[] h = murmur3x64_128(data, 0);
+        byte[] out = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            out[i] = (byte) (h[0] >>> (8 * i));
+            out[8 + i] = (byte) (h[1] >>> (8 * i));
+        }
+        return toHex(out);
+    }
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    @SuppressWarnings("fallthrough")  // the tail switch falls through by design, as in the reference
+    static long[] murmur3x64_128(byte[] data, long seed) {
+        int len = data.length;
+        int blocks = len / 16;
+        long h1 = seed, h2 = seed;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLongLE(data, i * 16);
+            long k2 = getLongLE(data, i * 16 + 8);
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks * 16;
+        long k1 = 0, k2 = 0;
+        switch (len & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:  k2 ^= (data[tail + 8] & 0xff);
+                     k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7:  k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6:  k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5:  k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4:  k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3:  k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2:  k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:  k1 ^= (data[tail] & 0xff);
+                     k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            default: break;
+        }
+
+        h1 ^= len; h2 ^= len;
+        h1 += h2; h2 += h1;
+        h1 = fmix64(h1); h2 = fmix64(h2);
+        h1 += h2; h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long getLongLE(byte[] b, int off) {
+        return (b[off] & 0xffL)
+                | (b[off + 1] & 0xffL) << 8
+                | (b[off + 2] & 0xffL) << 16
+                | (b[off + 3] & 0xffL) << 24
+                | (b[off + 4] & 0xffL) << 32
+                | (b[off + 5] & 0xffL) << 40
+                | (b[off + 6] & 0xffL) << 48
+                | (b[off + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xff;
+            out[j++] = HEX[v >>> 4];
+            out[j++] = HEX[v & 0x0f];
+        }
+        return new String(out);
+    }
+}
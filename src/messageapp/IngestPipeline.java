@@ -0,0 +1,210 @@
+package messageapp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Batched, back-pressured ingestion of newline-delimited JSON messages into a
+ * MessageManager: parse, hash, dedup, index, persist.
+ *
+ * Parse and hash run on a fixed pool of workers, one batch of lines per task. A single
+ * committer thread takes finished batches in submission order and commits each with
+ * MessageManager.addAll under the write lock, which applies the manager's dedup policy,
+ * updates the indexes and appends to its MessageLog (if one is attached). Only a
+ * bounded number of batches may be in flight, so submit blocks when the committer
+ * falls behind.
+ *
+ * Readers of the manager must hold the same lock's read lock.
+ */
+final class IngestPipeline implements Closeable {
+
+    static final int BATCH_LINES = 1_024;
+
+    /** Outcome of one submitted batch. */
+    static final class BatchResult {
+        final int received;
+        final int invalid;
+        final int added;
+
+        BatchResult(int received, int invalid, int added) {
+            this.received = received;
+            this.invalid = invalid;
+            this.added = added;
+        }
+    }
+
+    private static final class Parsed {
+        final List<Message> messages;
+        final int received;
+        final int invalid;
+        final CompletableFuture<BatchResult> done = new CompletableFuture<>();
+
+        Parsed(List<Message> messages, int received, int invalid) {
+            this.messages = messages;
+            this.received = received;
+            this.invalid = invalid;
+        }
+    }
+
+    private static final Future<Parsed> POISON = CompletableFuture.completedFuture(null);
+
+    private final MessageManager mgr;
+    private final ReadWriteLock lock;
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<Parsed>> inFlight;
+    private final Thread committer;
+    private final ThreadLocal<Gson> gson = ThreadLocal.withInitial(Gson::new);
+    // held from the closed check to the queue put, so nothing is queued behind POISON
+    private final Object submitLock = new Object();
+    private boolean closed;  // guarded by submitLock
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder added = new LongAdder();
+
+    IngestPipeline(MessageManager mgr, ReadWriteLock lock, int workerCount, int maxInFlightBatches) {
+        this.mgr = mgr;
+        this.lock = lock;
+        this.workers = Executors.newFixedThreadPool(workerCount, daemon("ingest-worker"));
+        this.inFlight = new ArrayBlockingQueue<>(maxInFlightBatches);
+        this.committer = daemon("ingest-committer").newThread(this::commitLoop);
+        committer.start();
+    }
+
+    /**
+     * Queues lines (one JSON message each; blank lines are skipped) for ingestion,
+     * blocking while the pipeline is full. The future completes once the batch is
+     * indexed and handed to the log. Submitters queue up behind one that is blocked.
+     */
+    CompletableFuture<BatchResult> submit(List<String> lines) throws InterruptedException {
+        CompletableFuture<Parsed> parsed;
+        synchronized (submitLock) {
+            if (closed) throw new IllegalStateException("pipeline is closed");
+            parsed = CompletableFuture.supplyAsync(() -> parse(lines), workers);
+            inFlight.put(parsed);  // the committer keeps draining, so this cannot block close for good
+        }
+        return parsed.thenCompose(p -> p.done);
+    }
+
+    /** Reads NDJSON until end of input, BATCH_LINES per batch, and waits for all of it. */
+    BatchResult ingest(BufferedReader in) throws IOException, InterruptedException {
+        List<CompletableFuture<BatchResult>> pending = new ArrayList<>();
+        List<String> batch = new ArrayList<>(BATCH_LINES);
+        String line;
+        while ((line = in.readLine()) != null) {
+            batch.add(line);
+            if (batch.size() == BATCH_LINES) {
+                pending.add(submit(batch));
+                batch = new ArrayList<>(BATCH_LINES);
+            }
+        }
+        if (!batch.isEmpty()) pending.add(submit(batch));
+        int r = 0, bad = 0, a = 0;
+        for (CompletableFuture<BatchResult> f : pending) {
+            BatchResult res;
+            try {
+                res = f.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Ingestion failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            r += res.received;
+            bad += res.invalid;
+            a += res.added;
+        }
+        return new BatchResult(r, bad, a);
+    }
+
+    long getReceived() { return received.sum(); }
+    long getInvalid() { return invalid.sum(); }
+    long getAdded() { return added.sum(); }
+
+    /** Finishes the batches already submitted, then stops the threads. */
+    @Override
+    public void close() {
+        try {
+            synchronized (submitLock) {
+                if (closed) return;
+                closed = true;
+                inFlight.put(POISON);
+            }
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    private Parsed parse(List<String> lines) {
+        List<Message> out = new ArrayList<>(lines.size());
+        int bad = 0, count = 0;
+        HashStrategy strategy = mgr.getHashStrategy();
+        for (String line : lines) {
+            if (line.trim().isEmpty()) continue;
+            count++;
+            try {
+                Message m = MessageManager.fromJson(gson.get(), line, strategy);
+                if (m == null || m.getFlag() == null) {
+                    bad++;
+                    continue;
+                }
+                m.getHash();
+                out.add(m);
+            } catch (JsonParseException e) {
+                bad++;
+            }
+        }
+        return new Parsed(out, count, bad);
+    }
+
+    private void commitLoop() {
+        while (true) {
+            Future<Parsed> next;
+            try {
+                next = inFlight.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == POISON) return;
+            Parsed p;
+            try {
+                p = next.get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                continue;  // the submitter's future already carries the failure
+            }
+            try {
+                int n;
+                lock.writeLock().lock();
+                try {
+                    n = mgr.addAll(p.messages);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                received.add(p.received);
+                invalid.add(p.invalid);
+                added.add(n);
+                p.done.complete(new BatchResult(p.received, p.invalid, n));
+            } catch (RuntimeException e) {
+                p.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package messageapp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in the HDR style: log-linear buckets, a power of two
+ * split into SUB_BUCKETS linear steps, so every recorded value lands within 12.5% of
+ * its bucket bound whatever its magnitude. Values are nanoseconds.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        total.add(nanos);
+    }
+
+    long getCount() { return count.sum(); }
+
+    long getTotalNanos() { return total.sum(); }
+
+    double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /** Upper bound of the bucket holding the q-th quantile (0 < q <= 1), or 0 if empty. */
+    long getQuantileNanos(double q) {
+        long n = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) n += snapshot[i] = buckets.get(i);
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    long getMaxNanos() {
+        for (int i = buckets.length() - 1; i >= 0; i--) if (buckets.get(i) != 0) return upperBound(i);
+        return 0;
+    }
+
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+        count.reset();
+        total.reset();
+    }
+
+    private static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);        // v in [2^exp, 2^(exp+1))
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long base = 1L << exp;
+        long step = base >>> SUB_BITS;
+        return base + (sub + 1) * step - 1;
+    }
+}
@@ -0,0 +1,83 @@
+package messageapp;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Posts synthetic NDJSON batches to a local MessageServer over several connections and
+ * reports sustained messages per second. Each POST returns once its batch is indexed,
+ * so the rate is end-to-end.
+ */
+final class LoadGenerator {
+
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+
+    private LoadGenerator() {}
+
+    static void run(Map<String, String> opts) throws Exception {
+        int port = Integer.parseInt(opts.getOrDefault("port", "8080"));
+        long total = Long.parseLong(opts.getOrDefault("messages", "1000000"));
+        int batch = Integer.parseInt(opts.getOrDefault("batch", "1000"));
+        int connections = Integer.parseInt(opts.getOrDefault("connections", "4"));
+        URI uri = URI.create("http://127.0.0.1:" + port + "/messages");
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        AtomicLong next = new AtomicLong();
+        AtomicLong added = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        long start = System.nanoTime();
+        List<Future<?>> done = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            done.add(pool.submit(() -> {
+                long from;
+                while ((from = next.getAndAdd(batch)) < total) {
+                    String body = ndjson(from, Math.min(total, from + batch));
+                    HttpResponse<String> res = client.send(HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+                    if (res.statusCode() != 200) throw new IllegalStateException("HTTP " + res.statusCode() + ": " + res.body());
+                    added.addAndGet(Math.min(total, from + batch) - from);
+                }
+                return null;
+            }));
+        }
+        long lastReport = start;
+        for (Future<?> f : done) {
+            while (!f.isDone()) {
+                Thread.sleep(200);
+                long now = System.nanoTime();
+                if (now - lastReport >= 1_000_000_000L) {
+                    System.out.printf("%d messages, %.0f messages/s%n", added.get(), added.get() / ((now - start) / 1e9));
+                    lastReport = now;
+                }
+            }
+            f.get();
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sent %d messages in %.2f s: %.0f messages/s over %d connections%n",
+                added.get(), seconds, added.get() / seconds, connections);
+    }
+
+    private static String ndjson(long from, long to) {
+        StringBuilder sb = new StringBuilder((int) (to - from) * 160);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (long i = from; i < to; i++) {
+            sb.append("{\"messageId\":\"LG").append(i)
+              .append("\",\"sender\":\"+2783").append(String.format("%07d", rnd.nextInt(10_000)))
+              .append("\",\"recipient\":\"+2782").append(String.format("%07d", rnd.nextInt(10_000)))
+              .append("\",\"text\":\"Load test message ").append(i).append(" ").append(Long.toHexString(rnd.nextLong()))
+              .append("\",\"flag\":\"").append(FLAGS[(int) (i % FLAGS.length)]).append("\"}\n");
+        }
+        return sb.toString();
+    }
+}
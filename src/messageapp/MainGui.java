@@ -8,8 +8,20 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
 
 /**
  * MainGui - Swing GUI front-end for the MessageManager system.
@@ -19,6 +31,11 @@ import java.util.Optional;
  */
 public class MainGui extends JPanel {
 
+    private static final int REPORT_PREVIEW_LIMIT = 10_000;
+    private static final int OUTPUT_CHUNK_CHARS = 16 * 1024;
+    private static final int TEXT_SEARCH_LIMIT = 100;
+    private static final String PROTOTYPE_ROW = "[0000] +27830000000 -> +27830000000 : xxxxxxxxxxxxxxxxxxxx";
+
     private final MessageManager mgr = new MessageManager();
 
     // Input fields
@@ -26,18 +43,24 @@ public class MainGui extends JPanel {
     private final JTextField tfSender = new JTextField(12);
     private final JTextField tfRecipient = new JTextField(12);
     private final JTextField tfHashToDelete = new JTextField(40);
+    private final JTextField tfSearchText = new JTextField(20);
     private final JTextArea taMessageText = new JTextArea(3, 30);
     private final JComboBox<String> cbFlag = new JComboBox<>(new String[]{"SENT", "STORED", "DISREGARD"});
 
     // Displays
-    private final DefaultListModel<String> lmSent = new DefaultListModel<>();
-    private final DefaultListModel<String> lmStored = new DefaultListModel<>();
-    private final DefaultListModel<String> lmDisregarded = new DefaultListModel<>();
-    private final JList<String> listSent = new JList<>(lmSent);
-    private final JList<String> listStored = new JList<>(lmStored);
-    private final JList<String> listDisregarded = new JList<>(lmDisregarded);
+    // models read straight from the manager and format rows only as they are painted
+    private final JList<String> listSent = new JList<>(new MessageListModel(mgr, Flag.SENT, this::displaySummary));
+    private final JList<String> listStored = new JList<>(new MessageListModel(mgr, Flag.STORED, this::displaySummaryWithHash));
+    private final JList<String> listDisregarded = new JList<>(new MessageListModel(mgr, Flag.DISREGARD, this::displaySummary));
     private final JTextArea taOutput = new JTextArea(15, 60);
 
+    // Background work. The manager itself is only touched on the EDT (the list models
+    // depend on that); workers parse, hash and format, and hand results back via publish().
+    private final JProgressBar progressBar = new JProgressBar();
+    private final JLabel lblStatus = new JLabel(" ");
+    private final JButton btnCancel = new JButton("Cancel");
+    private SwingWorker<?, ?> currentTask;
+
     public MainGui() {
         setLayout(new BorderLayout(8, 8));
         setBorder(new EmptyBorder(8, 8, 8, 8));
@@ -49,6 +72,47 @@ public class MainGui extends JPanel {
         taOutput.setEditable(false);
         taMessageText.setLineWrap(true);
         taMessageText.setWrapStyleWord(true);
+        // a prototype row stops JList from measuring every element
+        listSent.setPrototypeCellValue(PROTOTYPE_ROW);
+        listStored.setPrototypeCellValue(PROTOTYPE_ROW + " (hash: " + "0".repeat(64) + ")");
+        listDisregarded.setPrototypeCellValue(PROTOTYPE_ROW);
+
+        // -Dmessageapp.ngrams=true also indexes phone/ID fragments (more memory)
+        mgr.enableTextSearch(Boolean.getBoolean("messageapp.ngrams"));
+        // -Dmessageapp.dedup=REJECT|MERGE drops messages whose hash is already stored
+        String dedup = System.getProperty("messageapp.dedup");
+        if (dedup != null) mgr.setDedupPolicy(DedupPolicy.valueOf(dedup.trim().toUpperCase()), 100_000);
+        openLog();
+        registerMetrics();
+    }
+
+    // -Dmessageapp.metrics=true records operation latencies, visible in JConsole under "messageapp"
+    private void registerMetrics() {
+        if (!Boolean.getBoolean("messageapp.metrics")) return;
+        try {
+            mgr.enableMetrics().register("gui");
+        } catch (Exception ex) {
+            taOutput.setText("Error registering metrics: " + ex.getMessage());
+        }
+    }
+
+    // Persist adds/deletes when started with -Dmessageapp.log=<file>; replays the file first.
+    private void openLog() {
+        String logPath = System.getProperty("messageapp.log");
+        if (logPath == null || logPath.trim().isEmpty()) return;
+        try {
+            MessageLog log = new MessageLog(Paths.get(logPath.trim()));
+            mgr.attachLog(log);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    log.close();
+                } catch (IOException ignored) {
+                }
+            }));
+            taOutput.setText("Restored messages from log: " + logPath);
+        } catch (Exception ex) {
+            taOutput.setText("Error opening message log: " + ex.getMessage());
+        }
     }
 
     private JPanel createTopPanel() {
@@ -92,7 +156,10 @@ public class MainGui extends JPanel {
         btnLongest.addActionListener(e -> onShowLongest());
 
         JButton btnReport = new JButton("Show Sent Report");
-        btnReport.addActionListener(e -> taOutput.setText(mgr.getSentMessagesReport()));
+        btnReport.addActionListener(e -> onShowReport());
+
+        JButton btnExportReport = new JButton("Export Sent Report...");
+        btnExportReport.addActionListener(e -> onExportReport());
 
         JButton btnSearchById = new JButton("Search by ID");
         btnSearchById.addActionListener(e -> onSearchById());
@@ -100,6 +167,10 @@ public class MainGui extends JPanel {
         JButton btnSearchByRecipient = new JButton("Search by Recipient");
         btnSearchByRecipient.addActionListener(e -> onSearchByRecipient());
 
+        JButton btnSearchText = new JButton("Search Text");
+        btnSearchText.addActionListener(e -> onSearchText());
+        tfSearchText.addActionListener(e -> onSearchText());
+
         JButton btnDeleteByHash = new JButton("Delete by Hash");
         btnDeleteByHash.addActionListener(e -> onDeleteByHash());
 
@@ -109,8 +180,12 @@ public class MainGui extends JPanel {
         p.add(btnAdd);
         p.add(btnLongest);
         p.add(btnReport);
+        p.add(btnExportReport);
         p.add(btnSearchById);
         p.add(btnSearchByRecipient);
+        p.add(new JLabel("Search message text:"));
+        p.add(tfSearchText);
+        p.add(btnSearchText);
         p.add(new JLabel("Hash to delete (paste):"));
         p.add(tfHashToDelete);
         p.add(btnDeleteByHash);
@@ -150,6 +225,14 @@ public class MainGui extends JPanel {
     private JPanel createBottomPanel() {
         JPanel p = new JPanel(new FlowLayout(FlowLayout.LEFT));
         p.add(new JLabel("Tip: copy message hash from the report to delete a message."));
+        progressBar.setVisible(false);
+        btnCancel.setVisible(false);
+        btnCancel.addActionListener(e -> {
+            if (currentTask != null) currentTask.cancel(true);
+        });
+        p.add(progressBar);
+        p.add(btnCancel);
+        p.add(lblStatus);
         return p;
     }
 
@@ -168,9 +251,11 @@ public class MainGui extends JPanel {
             }
             Flag flag = Flag.valueOf(flagStr);
             Message m = new Message(id.isEmpty() ? null : id, sender.isEmpty() ? "Unknown" : sender, recipient, text, flag);
-            mgr.addMessage(m);
-            updateLists();
-            taOutput.setText("Message added.\n\n" + m.toString());
+            if (mgr.addMessage(m)) {
+                taOutput.setText("Message added.\n\n" + m.toString());
+            } else {
+                taOutput.setText("Duplicate message not added (" + mgr.getDedupPolicy() + ").\n\n" + m.toString());
+            }
             clearInputs();
         } catch (IllegalArgumentException ex) {
             JOptionPane.showMessageDialog(this, "Invalid flag value. Use SENT, STORED or DISREGARD.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -188,6 +273,49 @@ public class MainGui extends JPanel {
         }
     }
 
+    private void onShowReport() {
+        if (isBusy()) return;
+        List<Message> sent = mgr.getSentMessages();
+        int total = sent.size();
+        // copy the references on the EDT; formatting happens on the worker
+        List<Message> snapshot = new ArrayList<>(sent.subList(0, Math.min(total, REPORT_PREVIEW_LIMIT)));
+        String footer = snapshot.size() < total
+                ? "\n(Showing " + snapshot.size() + " of " + total + " sent messages. Use \"Export Sent Report...\" for the full report.)\n"
+                : "";
+        taOutput.setText("");
+        startTask("Building report", new OutputWorker(snapshot, footer,
+                (out, items) -> MessageManager.writeSentReport(out, items, m -> true, Long.MAX_VALUE)));
+    }
+
+    private void onExportReport() {
+        if (isBusy()) return;
+        JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile(new java.io.File("sent_report.txt"));
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        String path = fc.getSelectedFile().getAbsolutePath();
+        List<Message> snapshot = new ArrayList<>(mgr.getSentMessages());
+        startTask("Exporting report", new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws IOException {
+                try (Writer w = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+                    return MessageManager.writeSentReport(new CancellableAppendable(w, this::isCancelled),
+                            tracked(snapshot, this::setProgress), m -> true, Long.MAX_VALUE);
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    taOutput.setText("Exported " + get() + " sent messages to: " + path);
+                } catch (CancellationException ex) {
+                    taOutput.setText("Export cancelled; " + path + " is incomplete.");
+                } catch (InterruptedException | ExecutionException ex) {
+                    taOutput.setText("Error exporting report: " + rootMessage(ex));
+                }
+            }
+        });
+    }
+
     private void onSearchById() {
         String id = JOptionPane.showInputDialog(this, "Enter Message ID to search:");
         if (id == null || id.trim().isEmpty()) return;
@@ -203,21 +331,44 @@ public class MainGui extends JPanel {
     private void onSearchByRecipient() {
         String r = JOptionPane.showInputDialog(this, "Enter Recipient to search (e.g. +27838884567):");
         if (r == null || r.trim().isEmpty()) return;
+        if (isBusy()) return;
+        // the index lookup is cheap; formatting a large result is not
         List<Message> found = mgr.findAllByRecipient(r.trim());
         if (found.isEmpty()) {
             taOutput.setText("No messages for recipient: " + r);
-        } else {
-            StringBuilder sb = new StringBuilder();
-            sb.append("Messages for ").append(r).append(":\n\n");
-            for (Message m : found) {
-                sb.append("Message ID: ").append(m.getMessageId()).append("\n");
-                sb.append("Text: ").append(m.getText()).append("\n");
-                sb.append("Flag: ").append(m.getFlag()).append("\n");
-                sb.append("Hash: ").append(m.getHash()).append("\n");
-                sb.append("-------------------\n");
+            return;
+        }
+        taOutput.setText("");
+        startTask("Searching", new OutputWorker(found, "", (out, items) -> {
+            out.append("Messages for ").append(r).append(":\n\n");
+            for (Message m : items) {
+                out.append("Message ID: ").append(m.getMessageId()).append("\n");
+                out.append("Text: ").append(m.getText()).append("\n");
+                out.append("Flag: ").append(String.valueOf(m.getFlag())).append("\n");
+                out.append("Hash: ").append(m.getHash()).append("\n");
+                out.append("-------------------\n");
             }
-            taOutput.setText(sb.toString());
+        }));
+    }
+
+    private void onSearchText() {
+        String q = tfSearchText.getText().trim();
+        if (q.isEmpty() || isBusy()) return;
+        List<Message> found = mgr.searchText(q, TEXT_SEARCH_LIMIT);
+        if (found.isEmpty()) {
+            taOutput.setText("No messages match: " + q);
+            return;
         }
+        taOutput.setText("");
+        startTask("Searching", new OutputWorker(found, "", (out, items) -> {
+            out.append("Top ").append(String.valueOf(found.size())).append(" matches for \"").append(q).append("\":\n\n");
+            for (Message m : items) {
+                out.append("[").append(String.valueOf(m.getFlag())).append("] ").append(m.getSender())
+                   .append(" -> ").append(m.getRecipient()).append(": ").append(m.getText()).append("\n");
+                out.append("Hash: ").append(m.getHash()).append("\n");
+                out.append("-------------------\n");
+            }
+        }));
     }
 
     private void onDeleteByHash() {
@@ -226,9 +377,11 @@ public class MainGui extends JPanel {
             JOptionPane.showMessageDialog(this, "Paste the hash to delete, or copy from the report.", "Missing hash", JOptionPane.WARNING_MESSAGE);
             return;
         }
+        if (isBusy()) return;
+        // an index lookup plus an O(log n) list removal, so it stays on the EDT with the models;
+        // with a log attached, compaction is only scheduled here and runs on the log's thread
         boolean ok = mgr.deleteByHash(hash);
         if (ok) {
-            updateLists();
             taOutput.setText("Message with hash " + hash + " successfully deleted.");
             tfHashToDelete.setText("");
         } else {
@@ -237,46 +390,216 @@ public class MainGui extends JPanel {
     }
 
     private void onLoadJson() {
+        if (isBusy()) return;
         JFileChooser fc = new JFileChooser();
         int res = fc.showOpenDialog(this);
         if (res != JFileChooser.APPROVE_OPTION) return;
-        try {
-            String path = fc.getSelectedFile().getAbsolutePath();
-            // MessageManager.readStoredMessagesFromJson uses Gson; show clear error if Gson not present
-            mgr.readStoredMessagesFromJson(path);
-            updateLists();
-            taOutput.setText("Loaded messages from JSON: " + path);
-        } catch (NoClassDefFoundError ncd) {
-            taOutput.setText("Gson library not found. Add gson-2.8.x.jar to project libraries to use JSON load.");
-        } catch (Exception ex) {
-            taOutput.setText("Error loading JSON: " + ex.getMessage());
+        String path = fc.getSelectedFile().getAbsolutePath();
+        startTask("Loading JSON", new LoadJsonWorker(path));
+    }
+
+    // ------------- Background tasks --------------
+
+    private boolean isBusy() {
+        if (currentTask == null) return false;
+        JOptionPane.showMessageDialog(this, "Please wait for the current task to finish, or cancel it.", "Busy", JOptionPane.INFORMATION_MESSAGE);
+        return true;
+    }
+
+    private void startTask(String label, SwingWorker<?, ?> task) {
+        currentTask = task;
+        lblStatus.setText(label + "...");
+        progressBar.setIndeterminate(true);
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        btnCancel.setVisible(true);
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setIndeterminate(false);
+                progressBar.setValue((Integer) e.getNewValue());
+            } else if ("state".equals(e.getPropertyName()) && e.getNewValue() == SwingWorker.StateValue.DONE) {
+                currentTask = null;
+                progressBar.setVisible(false);
+                btnCancel.setVisible(false);
+                lblStatus.setText(" ");
+            }
+        });
+        task.execute();
+    }
+
+    private static String rootMessage(Throwable t) {
+        while (t.getCause() != null) t = t.getCause();
+        return t.getMessage();
+    }
+
+    /** Streams and hashes batches off the EDT; each published batch is committed on the EDT. */
+    private final class LoadJsonWorker extends SwingWorker<Long, List<Message>> {
+        private static final int MAX_PENDING_BATCHES = 4;  // keeps each EDT commit small
+
+        private final String path;
+        private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+        private long read;
+        private long added;
+
+        LoadJsonWorker(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected Long doInBackground() throws IOException {
+            return MessageManager.readJsonBatches(path, mgr.getHashStrategy(), batch -> {
+                if (isCancelled()) throw new CancellationException();
+                batch.parallelStream().forEach(Message::getHash);
+                try {
+                    pendingBatches.acquire();
+                } catch (InterruptedException e) {
+                    throw new CancellationException();
+                }
+                publish(batch);
+            }, null);
+        }
+
+        @Override
+        protected void process(List<List<Message>> batches) {
+            for (List<Message> batch : batches) {
+                added += mgr.addAll(batch);
+                read += batch.size();
+                pendingBatches.release();
+            }
+            lblStatus.setText("Loading JSON... " + read + " messages");
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+                long duplicates = read - added;
+                taOutput.setText("Loaded " + added + " messages from JSON: " + path
+                        + (duplicates > 0 ? " (" + duplicates + " duplicates skipped)" : ""));
+            } catch (CancellationException ex) {
+                taOutput.setText("Load cancelled after " + added + " messages: " + path);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof NoClassDefFoundError) {
+                    // MessageManager.readStoredMessagesFromJson uses Gson; show clear error if Gson not present
+                    taOutput.setText("Gson library not found. Add gson-2.8.x.jar to project libraries to use JSON load.");
+                } else {
+                    taOutput.setText("Error loading JSON: " + rootMessage(ex));
+                }
+            } catch (InterruptedException ex) {
+                taOutput.setText("Error loading JSON: " + ex.getMessage());
+            }
         }
     }
 
-    private void clearInputs() {
-        tfMessageId.setText("");
-        tfSender.setText("");
-        tfRecipient.setText("");
-        taMessageText.setText("");
-        cbFlag.setSelectedIndex(0);
+    /** Iterates items, reporting 0-100 progress as they are consumed. */
+    private static Iterable<Message> tracked(List<Message> items, IntConsumer progress) {
+        int size = items.size();
+        return () -> new Iterator<Message>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Message next() {
+                if ((next & 255) == 0) progress.accept((int) ((long) next * 100 / size));
+                return items.get(next++);
+            }
+        };
+    }
+
+    private interface OutputWriter {
+        void write(Appendable out, Iterable<Message> items) throws IOException;
+    }
+
+    /** Formats text on a worker and appends it to taOutput in chunks as it is produced. */
+    private final class OutputWorker extends SwingWorker<Void, String> {
+        private final List<Message> items;
+        private final String footer;
+        private final OutputWriter writer;
+
+        OutputWorker(List<Message> items, String footer, OutputWriter writer) {
+            this.items = items;
+            this.footer = footer;
+            this.writer = writer;
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            StringBuilder chunk = new StringBuilder(OUTPUT_CHUNK_CHARS);
+            Appendable out = new CancellableAppendable(chunk, this::isCancelled) {
+                @Override
+                public Appendable append(CharSequence csq) throws IOException {
+                    super.append(csq);
+                    if (chunk.length() >= OUTPUT_CHUNK_CHARS) {
+                        publish(chunk.toString());
+                        chunk.setLength(0);
+                    }
+                    return this;
+                }
+            };
+            writer.write(out, tracked(items, this::setProgress));
+            if (chunk.length() > 0) publish(chunk.toString());
+            return null;
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            for (String c : chunks) taOutput.append(c);
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+                taOutput.append(footer);
+            } catch (CancellationException ex) {
+                taOutput.append("\n(Cancelled.)\n");
+            } catch (InterruptedException | ExecutionException ex) {
+                taOutput.append("\nError: " + rootMessage(ex) + "\n");
+            }
+            taOutput.setCaretPosition(0);
+        }
     }
 
-    private void updateLists() {
-        lmSent.clear();
-        lmStored.clear();
-        lmDisregarded.clear();
+    /** Appendable wrapper that aborts the writer once its task is cancelled. */
+    private static class CancellableAppendable implements Appendable {
+        private final Appendable target;
+        private final BooleanSupplier cancelled;
+
+        CancellableAppendable(Appendable target, BooleanSupplier cancelled) {
+            this.target = target;
+            this.cancelled = cancelled;
+        }
 
-        for (Message m : mgr.getSentMessages()) {
-            lmSent.addElement(displaySummary(m));
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            target.append(csq);
+            return this;
         }
-        for (Message m : mgr.getStoredMessages()) {
-            lmStored.addElement(displaySummaryWithHash(m));
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            return append(csq == null ? "null" : csq.subSequence(start, end));
         }
-        for (Message m : mgr.getDisregardedMessages()) {
-            lmDisregarded.addElement(displaySummary(m));
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            return append(String.valueOf(c));
         }
     }
 
+    private void clearInputs() {
+        tfMessageId.setText("");
+        tfSender.setText("");
+        tfRecipient.setText("");
+        taMessageText.setText("");
+        cbFlag.setSelectedIndex(0);
+    }
+
     private String displaySummary(Message m) {
         return String.format("[%s] %s -> %s : %s", m.getMessageId(), m.getSender(), m.getRecipient(), truncate(m.getText(), 40));
     }
@@ -1,8 +1,5 @@
 package messageapp;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
 
 public class Message {
@@ -13,7 +10,10 @@ public class Message {
     private String recipient;     // phone number
     private String text;
     private Flag flag;
-    private String hash;          // computed hash
+    private HashStrategy hashStrategy = HashStrategy.SHA_256;
+    // computed on first getHash(), cleared by any setter that feeds the hash.
+    // Racing threads may both compute it, but they compute the same immutable String.
+    private String hash;
 
     public Message() {}
 
@@ -23,37 +23,55 @@ public class Message {
         this.recipient = recipient;
         this.text = text;
         this.flag = flag;
-        this.hash = computeHash();
+    }
+
+    public Message(String messageId, String sender, String recipient, String text, Flag flag, HashStrategy hashStrategy) {
+        this(messageId, sender, recipient, text, flag);
+        this.hashStrategy = Objects.requireNonNull(hashStrategy);
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    /** Rebuilds a persisted message with its already-computed hash, skipping re-hashing. */
+    static Message restore(String messageId, String sender, String recipient, String text, Flag flag,
+                           HashStrategy hashStrategy, String hash) {
+        Message m = new Message(messageId, sender, recipient, text, flag, hashStrategy);
+        m.hash = hash;
+        return m;
     }
 
     public String getMessageId() { return messageId; }
-    public void setMessageId(String messageId) { this.messageId = messageId; this.hash = computeHash(); }
+    public void setMessageId(String messageId) { this.messageId = messageId; this.hash = null; }
     public String getSender() { return sender; }
-    public void setSender(String sender) { this.sender = sender; this.hash = computeHash(); }
+    public void setSender(String sender) { this.sender = sender; this.hash = null; }
     public String getRecipient() { return recipient; }
-    public void setRecipient(String recipient) { this.recipient = recipient; this.hash = computeHash(); }
+    public void setRecipient(String recipient) { this.recipient = recipient; this.hash = null; }
     public String getText() { return text; }
-    public void setText(String text) { this.text = text; this.hash = computeHash(); }
+    public void setText(String text) { this.text = text; this.hash = null; }
     public Flag getFlag() { return flag; }
     public void setFlag(Flag flag) { this.flag = flag; }
+    public HashStrategy getHashStrategy() { return hashStrategy; }
+    public void setHashStrategy(HashStrategy hashStrategy) { this.hashStrategy = Objects.requireNonNull(hashStrategy); this.hash = null; }
 
-    public String getHash() { return hash; }
+    public String getHash() {
+        String h = hash;
+        if (h == null) {
+            long start = MessageMetrics.startHash();
+            h = computeHash();
+            MessageMetrics.stopHash(start);
+            hash = h;
+        }
+        return h;
+    }
 
     private String computeHash() {
         String base = (messageId == null ? "" : messageId) + "|" +
                       (sender == null ? "" : sender) + "|" +
                       (recipient == null ? "" : recipient) + "|" +
                       (text == null ? "" : text);
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(base.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            // fallback
-            return Integer.toHexString(Objects.hash(base));
-        }
+        String hex = hashStrategy.hash(base);
+        // fallback
+        return hex != null ? hex : Integer.toHexString(Objects.hash(base));
     }
 
     @Override
@@ -64,7 +82,32 @@ public class Message {
                 ", recipient='" + recipient + '\'' +
                 ", text='" + text + '\'' +
                 ", flag=" + flag +
-                ", hash='" + hash + '\'' +
+                ", hash='" + getHash() + '\'' +
                 '}';
     }
+
+    /** Collects the fields and hashes exactly once in build(). */
+    public static class Builder {
+        private String messageId;
+        private String sender;
+        private String recipient;
+        private String text;
+        private Flag flag;
+        private HashStrategy hashStrategy = HashStrategy.SHA_256;
+
+        private Builder() {}
+
+        public Builder messageId(String messageId) { this.messageId = messageId; return this; }
+        public Builder sender(String sender) { this.sender = sender; return this; }
+        public Builder recipient(String recipient) { this.recipient = recipient; return this; }
+        public Builder text(String text) { this.text = text; return this; }
+        public Builder flag(Flag flag) { this.flag = flag; return this; }
+        public Builder hashStrategy(HashStrategy hashStrategy) { this.hashStrategy = hashStrategy; return this; }
+
+        public Message build() {
+            Message m = new Message(messageId, sender, recipient, text, flag, hashStrategy);
+            m.getHash();
+            return m;
+        }
+    }
 }
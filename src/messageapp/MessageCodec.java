@@ -0,0 +1,57 @@
+package messageapp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of a single Message, shared by the on-disk formats.
+ * Strings are an int byte length (-1 for null) followed by UTF-8 bytes.
+ */
+final class MessageCodec {
+
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+    private static final HashStrategy[] STRATEGIES = HashStrategy.values();
+
+    private MessageCodec() {}
+
+    static void write(DataOutput out, Message m) throws IOException {
+        writeString(out, m.getMessageId());
+        writeString(out, m.getSender());
+        writeString(out, m.getRecipient());
+        writeString(out, m.getText());
+        out.writeByte(m.getFlag().ordinal());
+        out.writeByte(m.getHashStrategy().ordinal());
+        writeString(out, m.getHash());
+    }
+
+    static Message read(DataInput in) throws IOException {
+        String messageId = readString(in);
+        String sender = readString(in);
+        String recipient = readString(in);
+        String text = readString(in);
+        Message.Flag flag = FLAGS[in.readUnsignedByte()];
+        HashStrategy strategy = STRATEGIES[in.readUnsignedByte()];
+        String hash = readString(in);
+        return Message.restore(messageId, sender, recipient, text, flag, strategy, hash);
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,189 @@
+package messageapp;
+
+import java.util.*;
+
+/**
+ * Append-ordered list of messages with O(log n) removal by identity.
+ *
+ * Removed messages leave a hole in the slot array; a Fenwick tree over the live slots
+ * maps list positions to slots and back while holes exist. Holes are squeezed out once
+ * they outnumber live messages, so access falls back to a plain array read.
+ *
+ * Like ArrayList, the same instance may be added more than once; removal takes out its
+ * earliest occurrence.
+ */
+final class MessageList extends AbstractList<Message> implements RandomAccess {
+
+    private Message[] slots;
+    private int[] tree;                       // Fenwick tree of live flags, 1-based
+    private int end;                          // slots used, live or not
+    private int holes;
+    // slot of each message: an Integer, or an ascending int[] when it occurs more than once
+    private final Map<Message, Object> slotOf;
+
+    MessageList() {
+        this(16);
+    }
+
+    /** Small capacities suit the many short lists of an index. */
+    MessageList(int initialCapacity) {
+        slots = new Message[Math.max(1, initialCapacity)];
+        tree = new int[slots.length + 1];
+        slotOf = new IdentityHashMap<>(slots.length);
+    }
+
+    @Override
+    public Message get(int index) {
+        Objects.checkIndex(index, size());
+        return slots[holes == 0 ? index : select(index)];
+    }
+
+    @Override
+    public int size() {
+        return end - holes;
+    }
+
+    @Override
+    public boolean add(Message m) {
+        ensureCapacity(end + 1);
+        slots[end] = m;
+        addSlot(m, end);
+        bump(end, 1);
+        end++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Message && removeMessage((Message) o) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return slotOf.containsKey(o);
+    }
+
+    /** Removes the earliest occurrence of m and returns the list position it had, or -1 if it was not present. */
+    int removeMessage(Message m) {
+        int slot = removeFirstSlot(m);
+        if (slot < 0) return -1;
+        int index = prefix(slot);          // live slots before this one
+        slots[slot] = null;
+        bump(slot, -1);
+        holes++;
+        modCount++;
+        if (holes > size()) squeeze();
+        return index;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= slots.length) return;
+        int n = Math.max(capacity, slots.length + (slots.length >> 1));
+        slots = Arrays.copyOf(slots, n);
+        rebuildTree();
+    }
+
+    @Override
+    public Iterator<Message> iterator() {
+        return new Iterator<Message>() {
+            private final int expectedModCount = modCount;
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < end && slots[from] == null) from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Message next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (next >= end) throw new NoSuchElementException();
+                Message m = slots[next];
+                next = advance(next + 1);
+                return m;
+            }
+        };
+    }
+
+    private void addSlot(Message m, int slot) {
+        Object prev = slotOf.putIfAbsent(m, slot);
+        if (prev == null) return;
+        int[] many;
+        if (prev instanceof Integer) {
+            many = new int[]{(Integer) prev, slot};
+        } else {
+            int[] old = (int[]) prev;
+            many = Arrays.copyOf(old, old.length + 1);
+            many[old.length] = slot;
+        }
+        slotOf.put(m, many);
+    }
+
+    private int removeFirstSlot(Message m) {
+        Object cur = slotOf.get(m);
+        if (cur == null) return -1;
+        if (cur instanceof Integer) {
+            slotOf.remove(m);
+            return (Integer) cur;
+        }
+        int[] many = (int[]) cur;
+        slotOf.put(m, many.length == 2 ? (Object) many[1] : Arrays.copyOfRange(many, 1, many.length));
+        return many[0];
+    }
+
+    private void squeeze() {
+        slotOf.clear();
+        int w = 0;
+        for (int r = 0; r < end; r++) {
+            Message m = slots[r];
+            if (m == null) continue;
+            slots[w] = m;
+            addSlot(m, w);
+            w++;
+        }
+        Arrays.fill(slots, w, end, null);
+        end = w;
+        holes = 0;
+        rebuildTree();
+    }
+
+    private void rebuildTree() {
+        tree = new int[slots.length + 1];
+        for (int j = 1; j < tree.length; j++) {
+            if (slots[j - 1] != null) tree[j] += 1;
+            int parent = j + (j & -j);
+            if (parent < tree.length) tree[parent] += tree[j];
+        }
+    }
+
+    private void bump(int slot, int delta) {
+        for (int j = slot + 1; j < tree.length; j += j & -j) tree[j] += delta;
+    }
+
+    /** Number of live slots strictly before slot. */
+    private int prefix(int slot) {
+        int sum = 0;
+        for (int j = slot; j > 0; j -= j & -j) sum += tree[j];
+        return sum;
+    }
+
+    /** Slot holding the index-th live message. */
+    private int select(int index) {
+        int pos = 0;
+        int remaining = index + 1;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next < tree.length && tree[next] < remaining) {
+                pos = next;
+                remaining -= tree[next];
+            }
+        }
+        return pos;  // 1-based position pos + 1, i.e. slot pos
+    }
+}
@@ -0,0 +1,50 @@
+package messageapp;
+
+import javax.swing.AbstractListModel;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * ListModel over one of a MessageManager's flag lists. Rows are formatted only when the
+ * JList asks for them, and manager changes arrive as interval events instead of a rebuild.
+ * The manager must only be changed on the Event Dispatch Thread while this model is installed.
+ */
+class MessageListModel extends AbstractListModel<String> implements MessageManager.Listener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Message.Flag flag;
+    private final List<Message> messages;
+    private final Function<Message, String> formatter;
+
+    MessageListModel(MessageManager mgr, Message.Flag flag, Function<Message, String> formatter) {
+        this.flag = flag;
+        this.formatter = formatter;
+        switch (flag) {
+            case SENT: messages = mgr.getSentMessages(); break;
+            case STORED: messages = mgr.getStoredMessages(); break;
+            default: messages = mgr.getDisregardedMessages(); break;
+        }
+        mgr.addListener(this);
+    }
+
+    @Override
+    public int getSize() {
+        return messages.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return formatter.apply(messages.get(index));
+    }
+
+    @Override
+    public void messagesAdded(Message.Flag flag, int fromIndex, int toIndex) {
+        if (flag == this.flag) fireIntervalAdded(this, fromIndex, toIndex);
+    }
+
+    @Override
+    public void messageRemoved(Message.Flag flag, int index) {
+        if (flag == this.flag) fireIntervalRemoved(this, index, index);
+    }
+}
@@ -0,0 +1,428 @@
+package messageapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of MessageManager changes.
+ *
+ * Each record is [int payload length][int CRC32 of payload][payload], where the payload
+ * is a type byte followed by an encoded Message (ADD), a hash (DELETE tombstone), or a
+ * hash and flag ordinal byte (FLAG: the first message with that hash changed flag).
+ * Appends go to an in-memory buffer; a background thread writes and fsyncs it every
+ * groupCommitMillis, or sooner once a megabyte is pending, so many appends share one
+ * fsync and appenders do no I/O. Call sync() to wait for durability.
+ *
+ * On replay a torn or corrupt tail (e.g. after a crash mid-write) is truncated away.
+ * compactIfNeeded schedules a rewrite from the live messages once tombstoned records
+ * outnumber live ones; it runs on the background thread while appends continue.
+ * Compaction writes messages in the order they were added, so a replay rebuilds the
+ * same list and index order.
+ */
+public final class MessageLog implements Closeable {
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte FLAG = 3;
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int FLUSH_THRESHOLD_BYTES = 1024 * 1024;
+    private static final int MAX_PENDING_BYTES = 64 * FLUSH_THRESHOLD_BYTES;  // then appenders sync themselves
+    private static final long COMPACT_MIN_GARBAGE = 10_000;
+
+    private final Path path;
+    private FileChannel channel;
+
+    // appenders only take bufferLock; writers take ioLock then bufferLock so batches stay ordered
+    private final Object bufferLock = new Object();
+    private final Object ioLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private long records;
+    private long size;  // bytes written or pending
+    private IOException failure;
+    private boolean closed;
+    private boolean compacting;
+    private boolean flushRequested;
+
+    private final ScheduledExecutorService flusher;
+
+    public MessageLog(Path path) throws IOException {
+        this(path, 50);
+    }
+
+    public MessageLog(Path path, long groupCommitMillis) throws IOException {
+        this.path = path;
+        this.channel = openChannel(path);
+        this.size = channel.size();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-log-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::backgroundFlush, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Path getPath() { return path; }
+
+    /** Number of records currently in the log (written or pending). */
+    public long getRecordCount() {
+        synchronized (bufferLock) {
+            return records;
+        }
+    }
+
+    public void appendAdd(Message m) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(ADD);
+            MessageCodec.write(out, m);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(payload.toByteArray());
+    }
+
+    public void appendDelete(String hash) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(80);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(DELETE);
+            MessageCodec.writeString(out, hash);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(payload.toByteArray());
+    }
+
+    public void appendFlagChange(String hash, Message.Flag flag) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(80);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(FLAG);
+            MessageCodec.writeString(out, hash);
+            out.writeByte(flag.ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(payload.toByteArray());
+    }
+
+    private void append(byte[] payload) {
+        boolean wakeFlusher, syncNow;
+        synchronized (bufferLock) {
+            checkUsable();
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            writeInt(pending, payload.length);
+            writeInt(pending, (int) crc.getValue());
+            pending.write(payload, 0, payload.length);
+            records++;
+            size += 8 + payload.length;
+            // a full buffer wakes the flusher early rather than fsyncing on the caller's
+            // thread (often the EDT); only a flusher far behind pushes back on appenders
+            syncNow = pending.size() >= MAX_PENDING_BYTES;
+            wakeFlusher = !syncNow && !flushRequested && pending.size() >= FLUSH_THRESHOLD_BYTES;
+            if (wakeFlusher) flushRequested = true;
+        }
+        if (wakeFlusher) {
+            try {
+                flusher.execute(this::backgroundFlush);
+            } catch (RejectedExecutionException closing) {
+                // close() syncs whatever is pending
+            }
+        }
+        if (syncNow) {
+            try {
+                sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Writes and fsyncs everything appended so far. */
+    public void sync() throws IOException {
+        synchronized (ioLock) {
+            byte[] batch;
+            synchronized (bufferLock) {
+                if (failure != null) throw failure;
+                flushRequested = false;
+                if (pending.size() == 0) return;
+                batch = pending.toByteArray();
+                pending.reset();
+            }
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(batch);
+                while (buf.hasRemaining()) channel.write(buf);
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (bufferLock) {
+                    failure = e;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void backgroundFlush() {
+        try {
+            sync();
+        } catch (IOException ignored) {
+            // remembered in failure and rethrown to the next appender
+        }
+    }
+
+    /**
+     * Rebuilds the manager from the log. Must run before anything is appended.
+     * Adds are restored with their stored hashes, whatever the manager's dedup policy;
+     * a corrupt tail is truncated.
+     *
+     * @return number of records applied
+     */
+    public long replay(MessageManager mgr) throws IOException {
+        synchronized (ioLock) {
+            synchronized (bufferLock) {
+                if (records != 0 || pending.size() != 0) throw new IllegalStateException("replay after append");
+            }
+            long applied = 0;
+            long goodEnd = 0;
+            List<Message> batch = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+                CRC32 check = new CRC32();
+                while (true) {
+                    byte[] payload;
+                    try {
+                        int len = in.readInt();
+                        int expected = in.readInt();
+                        if (len <= 0 || len > MAX_RECORD_BYTES) break;
+                        payload = new byte[len];
+                        in.readFully(payload);
+                        check.reset();
+                        check.update(payload, 0, len);
+                        if ((int) check.getValue() != expected) break;
+                    } catch (EOFException torn) {
+                        break;
+                    }
+                    DataInputStream rec = new DataInputStream(new ByteArrayInputStream(payload));
+                    byte type = rec.readByte();
+                    if (type == ADD) {
+                        batch.add(MessageCodec.read(rec));
+                    } else if (type == DELETE) {
+                        mgr.replayAdds(batch);
+                        batch.clear();
+                        mgr.deleteByHash(MessageCodec.readString(rec));
+                    } else if (type == FLAG) {
+                        mgr.replayAdds(batch);
+                        batch.clear();
+                        String hash = MessageCodec.readString(rec);
+                        int flag = rec.readUnsignedByte();
+                        if (flag >= FLAGS.length) break;
+                        mgr.replayFlagChange(hash, FLAGS[flag]);
+                    } else {
+                        break;
+                    }
+                    goodEnd += 8 + payload.length;
+                    applied++;
+                }
+            }
+            mgr.replayAdds(batch);
+            if (goodEnd < channel.size()) {
+                channel.truncate(goodEnd);
+                channel.force(true);
+            }
+            synchronized (bufferLock) {
+                records = applied;
+                size = goodEnd;
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * Schedules a background compaction when dead records (tombstones and the adds they
+     * cancel) outweigh live messages. Call it on the thread that changes the manager:
+     * it copies the manager's lists (references only) and returns without any I/O, so
+     * the copy is the only cost to the caller, amortised over the deletes that made
+     * the garbage.
+     *
+     * @return true if a compaction was scheduled
+     */
+    public boolean compactIfNeeded(MessageManager mgr) throws IOException {
+        long live = mgr.getSentMessages().size() + mgr.getStoredMessages().size() + mgr.getDisregardedMessages().size();
+        long garbage = getRecordCount() - live;
+        if (garbage < COMPACT_MIN_GARBAGE || garbage < live) return false;
+        Cut cut = cut(mgr);
+        if (cut == null) return false;
+        flusher.execute(() -> {
+            try {
+                rewrite(cut);
+            } catch (IOException ignored) {
+                // the old log is untouched and still valid; a later delete tries again
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Rewrites the log as one ADD record per live message and atomically swaps it in,
+     * on the calling thread. The manager must be the one this log is recording.
+     */
+    public void compact(MessageManager mgr) throws IOException {
+        Cut cut = cut(mgr);
+        if (cut == null) throw new IllegalStateException("a compaction is already running");
+        rewrite(cut);
+    }
+
+    /** The manager's contents as of a log position (bytes written or pending). */
+    private static final class Cut {
+        final List<List<Message>> flagLists;
+        final List<String> hashOrder;
+        final long offset;
+        final long records;
+
+        Cut(List<List<Message>> flagLists, List<String> hashOrder, long offset, long records) {
+            this.flagLists = flagLists;
+            this.hashOrder = hashOrder;
+            this.offset = offset;
+            this.records = records;
+        }
+    }
+
+    private Cut cut(MessageManager mgr) throws IOException {
+        synchronized (bufferLock) {
+            if (compacting) return null;
+            checkUsable();
+            List<List<Message>> flagLists = List.of(new ArrayList<>(mgr.getSentMessages()),
+                    new ArrayList<>(mgr.getStoredMessages()), new ArrayList<>(mgr.getDisregardedMessages()));
+            compacting = true;
+            return new Cut(flagLists, mgr.getMessageHashes(), size, records);
+        }
+    }
+
+    /**
+     * Writes the cut's messages in add order, copies over whatever was written after
+     * the cut, and swaps the file in. Appends keep buffering meanwhile; only the final
+     * copy and swap hold up writers.
+     */
+    private void rewrite(Cut cut) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            long written = 0;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16))) {
+                    CRC32 c = new CRC32();
+                    ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+                    DataOutputStream pout = new DataOutputStream(payload);
+                    for (Message m : inAddOrder(cut.flagLists, cut.hashOrder)) {
+                        payload.reset();
+                        pout.writeByte(ADD);
+                        MessageCodec.write(pout, m);
+                        c.reset();
+                        c.update(payload.toByteArray(), 0, payload.size());
+                        data.writeInt(payload.size());
+                        data.writeInt((int) c.getValue());
+                        payload.writeTo(data);
+                        written++;
+                    }
+                    data.flush();
+                    synchronized (ioLock) {
+                        // records appended since the cut; later appends go to the new file afterwards
+                        sync();
+                        long tail = channel.size() - cut.offset;
+                        for (long pos = 0; pos < tail; ) {
+                            pos += channel.transferTo(cut.offset + pos, tail - pos, out);
+                        }
+                        out.force(true);
+                        channel.close();
+                        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        channel = openChannel(path);
+                        synchronized (bufferLock) {
+                            records = written + (records - cut.records);
+                            size = channel.size() + pending.size();
+                        }
+                    }
+                }
+            }
+        } finally {
+            synchronized (bufferLock) {
+                compacting = false;
+            }
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Merges the flag lists back into one add-ordered sequence: each list keeps its own
+     * order, and between lists the message whose hash was first added earlier goes first.
+     */
+    private static List<Message> inAddOrder(List<List<Message>> flagLists, List<String> hashOrder) {
+        Map<String, Integer> rank = new HashMap<>(hashOrder.size() * 2);
+        for (String h : hashOrder) rank.put(h, rank.size());
+        int total = 0;
+        for (List<Message> l : flagLists) total += l.size();
+        List<Message> out = new ArrayList<>(total);
+        int[] next = new int[flagLists.size()];
+        while (out.size() < total) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int f = 0; f < flagLists.size(); f++) {
+                if (next[f] >= flagLists.get(f).size()) continue;
+                int r = rank.getOrDefault(flagLists.get(f).get(next[f]).getHash(), Integer.MAX_VALUE);
+                if (best < 0 || r < bestRank) {
+                    best = f;
+                    bestRank = r;
+                }
+            }
+            out.add(flagLists.get(best).get(next[best]++));
+        }
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);  // lets a running compaction finish
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync();
+        } finally {
+            synchronized (bufferLock) {
+                closed = true;
+            }
+            channel.close();
+        }
+    }
+
+    private void checkUsable() {
+        if (closed) throw new IllegalStateException("log is closed");
+        if (failure != null) throw new UncheckedIOException(failure);
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        FileChannel fc = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        fc.position(fc.size());
+        return fc;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+}
@@ -1,123 +1,672 @@
 package messageapp;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import java.io.FileReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 public class MessageManager {
 
-    private final List<Message> sentMessages = new ArrayList<>();
-    private final List<Message> disregardedMessages = new ArrayList<>();
-    private final List<Message> storedMessages = new ArrayList<>();
+    private static final int PROGRESS_INTERVAL = 10_000;
+    private static final int IMPORT_BATCH_SIZE = 8_192;
+    private static final double DEDUP_FPP = 0.01;
 
-    private final List<String> messageHashes = new ArrayList<>();
-    private final List<String> messageIDs = new ArrayList<>();
+    private final MessageList sentMessages = new MessageList();
+    private final MessageList disregardedMessages = new MessageList();
+    private final MessageList storedMessages = new MessageList();
 
-    public void addMessage(Message m) {
-        switch (m.getFlag()) {
+    // hash -> messages and messageId -> messages, both in first-insertion order.
+    // Duplicates are kept in the value lists so a delete never needs a rebuild.
+    private final Map<String, List<Message>> hashIndex = new LinkedHashMap<>();
+    private final Map<String, List<Message>> idIndex = new LinkedHashMap<>();
+    // secondary indexes, value lists in insertion order across all flags; phone numbers
+    // repeat heavily, so these buckets remove by identity in O(log n) like the flag lists
+    private final Map<String, MessageList> recipientIndex = new HashMap<>();
+    private final Map<String, MessageList> senderIndex = new HashMap<>();
+    private TextIndex textIndex;  // null until enableTextSearch
+    private final MessageStats stats = new MessageStats(senderIndex, recipientIndex);
+
+    private final HashStrategy hashStrategy;
+    private MessageLog log;
+    private final List<Listener> listeners = new ArrayList<>();
+    private MessageMetrics metrics = MessageMetrics.NOOP;
+
+    private DedupPolicy dedupPolicy = DedupPolicy.KEEP_ALL;
+    private BloomFilter seenHashes;  // null unless deduplicating
+    private long duplicatesSeen;
+    private long bloomFalsePositives;
+    private boolean replaying;  // log replay re-adds exactly what was recorded
+
+    /**
+     * Notified after the flag lists change, with positions in the list returned by
+     * getSentMessages()/getStoredMessages()/getDisregardedMessages(). Called on the
+     * thread that changed the manager.
+     */
+    public interface Listener {
+        /** Messages were appended at positions fromIndex..toIndex (inclusive). */
+        void messagesAdded(Message.Flag flag, int fromIndex, int toIndex);
+
+        /** The message at index was removed; later messages moved up by one. */
+        void messageRemoved(Message.Flag flag, int index);
+    }
+
+    public MessageManager() {
+        this(HashStrategy.SHA_256);
+    }
+
+    /** Messages added to this manager are re-hashed with the given strategy if they use another one. */
+    public MessageManager(HashStrategy hashStrategy) {
+        this.hashStrategy = Objects.requireNonNull(hashStrategy);
+    }
+
+    public HashStrategy getHashStrategy() { return hashStrategy; }
+
+    /**
+     * Starts recording call counts and latencies for this manager's operations; returns
+     * the live metrics (see MessageMetrics.register for JMX). Idempotent.
+     */
+    public MessageMetrics enableMetrics() {
+        if (!metrics.isEnabled()) metrics = new MessageMetrics(this::storeSizes);
+        return metrics;
+    }
+
+    /** MessageMetrics.NOOP unless enableMetrics was called. */
+    public MessageMetrics getMetrics() { return metrics; }
+
+    // sampled from the metrics reader's thread, so the numbers may be slightly stale
+    private Map<String, Long> storeSizes() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        out.put("sent", (long) sentMessages.size());
+        out.put("stored", (long) storedMessages.size());
+        out.put("disregarded", (long) disregardedMessages.size());
+        out.put("hashIndex", (long) hashIndex.size());
+        out.put("idIndex", (long) idIndex.size());
+        out.put("recipientIndex", (long) recipientIndex.size());
+        out.put("senderIndex", (long) senderIndex.size());
+        return out;
+    }
+
+    public void addListener(Listener l) { listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /**
+     * Replays the log into this manager, then records every later add and delete in it.
+     * Deletes trigger compaction once the log is mostly garbage.
+     */
+    public void attachLog(MessageLog log) throws IOException {
+        if (this.log != null) throw new IllegalStateException("a log is already attached");
+        log.replay(this);
+        this.log = log;
+    }
+
+    /**
+     * Deduplicate on message hash from now on. The Bloom filter in front of the hash
+     * index is sized for expectedMessages (and rebuilt larger if that is exceeded), so a
+     * new message usually costs no index probe. Duplicates already stored stay.
+     */
+    public void setDedupPolicy(DedupPolicy policy, long expectedMessages) {
+        dedupPolicy = Objects.requireNonNull(policy);
+        if (policy == DedupPolicy.KEEP_ALL) {
+            seenHashes = null;
+            return;
+        }
+        rebuildSeenHashes(Math.max(expectedMessages, hashIndex.size()));
+    }
+
+    public DedupPolicy getDedupPolicy() { return dedupPolicy; }
+
+    /** Incoming messages rejected or merged because their hash was already stored. */
+    public long getDuplicatesSeen() { return duplicatesSeen; }
+
+    /** New messages that still needed an index probe because the Bloom filter said "maybe". */
+    public long getBloomFalsePositives() { return bloomFalsePositives; }
+
+    private void rebuildSeenHashes(long expected) {
+        seenHashes = new BloomFilter(Math.max(IMPORT_BATCH_SIZE, expected), DEDUP_FPP);
+        for (String hash : hashIndex.keySet()) seenHashes.put(hash);
+    }
+
+    /**
+     * @return false if the message was a duplicate and the dedup policy dropped it
+     */
+    public boolean addMessage(Message m) {
+        long start = metrics.start();
+        adopt(m, hashStrategy);
+        Message existing = duplicateOf(m);
+        if (existing != null) {
+            if (dedupPolicy == DedupPolicy.MERGE) merge(existing, m.getFlag());
+            metrics.stop(MessageMetrics.Op.ADD, start);
+            return false;
+        }
+        MessageList list = listFor(m.getFlag());
+        list.add(m);
+        updateIndexes(m);
+        if (log != null) log.appendAdd(m);
+        int index = list.size() - 1;
+        for (Listener l : listeners) l.messagesAdded(m.getFlag(), index, index);
+        metrics.stop(MessageMetrics.Op.ADD, start);
+        return true;
+    }
+
+    /** The stored message with m's hash if dedup is on and there is one, else null. */
+    private Message duplicateOf(Message m) {
+        if (seenHashes == null || replaying) return null;
+        String hash = m.getHash();
+        if (!seenHashes.mightContain(hash)) return null;
+        List<Message> bucket = hashIndex.get(hash);
+        if (bucket == null) {
+            bloomFalsePositives++;
+            return null;
+        }
+        duplicatesSeen++;
+        return bucket.get(0);
+    }
+
+    private void merge(Message existing, Message.Flag flag) {
+        if (flag == null || existing.getFlag() == flag) return;
+        removeFromStore(existing);
+        existing.setFlag(flag);
+        MessageList list = listFor(flag);
+        list.add(existing);
+        stats.add(existing, flag);
+        // a tombstone would also drop other messages with this hash on replay
+        if (log != null) log.appendFlagChange(existing.getHash(), flag);
+        int index = list.size() - 1;
+        for (Listener l : listeners) l.messagesAdded(flag, index, index);
+    }
+
+    /** Adds logged messages as they were recorded, whatever the dedup policy is now. */
+    void replayAdds(List<Message> batch) {
+        replaying = true;
+        try {
+            addAll(batch);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    /** Replays a logged MERGE: moves the first message with this hash to flag. */
+    void replayFlagChange(String hash, Message.Flag flag) {
+        List<Message> bucket = hashIndex.get(hash);
+        if (bucket != null) merge(bucket.get(0), flag);
+    }
+
+    /**
+     * Bulk add. Hashes are computed in parallel on the fork-join pool first, then the
+     * whole batch is committed to the flag lists and indexes on the calling thread.
+     *
+     * @return number of messages added, i.e. not dropped as duplicates
+     */
+    public int addAll(Collection<? extends Message> messages) {
+        if (messages.isEmpty()) return 0;
+        long start = metrics.start();
+        messages.parallelStream().forEach(m -> {
+            adopt(m, hashStrategy);
+            m.getHash();
+        });
+        ensureCapacity(messages);
+        Message.Flag[] flags = Message.Flag.values();
+        int[] before = new int[flags.length];
+        for (Message.Flag f : flags) before[f.ordinal()] = listFor(f).size();
+        int added = 0;
+        List<Message> merges = new ArrayList<>(0);
+        for (Message m : messages) {
+            Message existing = duplicateOf(m);
+            if (existing != null) {
+                // applied after the batch so listeners still see one appended range per flag
+                if (dedupPolicy == DedupPolicy.MERGE) {
+                    merges.add(existing);
+                    merges.add(m);
+                }
+                continue;
+            }
+            listFor(m.getFlag()).add(m);
+            updateIndexes(m);
+            if (log != null) log.appendAdd(m);
+            added++;
+        }
+        for (Message.Flag f : flags) {
+            int after = listFor(f).size();
+            if (after == before[f.ordinal()]) continue;
+            for (Listener l : listeners) l.messagesAdded(f, before[f.ordinal()], after - 1);
+        }
+        for (int i = 0; i < merges.size(); i += 2) merge(merges.get(i), merges.get(i + 1).getFlag());
+        metrics.stop(MessageMetrics.Op.ADD_ALL, start);
+        return added;
+    }
+
+    /** Re-hashes m with the strategy if it uses another one; returns m's hash. */
+    static String adopt(Message m, HashStrategy strategy) {
+        if (m.getHashStrategy() != strategy) m.setHashStrategy(strategy);
+        return m.getHash();
+    }
+
+    private void ensureCapacity(Collection<? extends Message> incoming) {
+        int sent = 0, stored = 0, disregarded = 0;
+        for (Message m : incoming) {
+            switch (m.getFlag()) {
+                case SENT: sent++; break;
+                case STORED: stored++; break;
+                case DISREGARD: disregarded++; break;
+            }
+        }
+        sentMessages.ensureCapacity(sentMessages.size() + sent);
+        storedMessages.ensureCapacity(storedMessages.size() + stored);
+        disregardedMessages.ensureCapacity(disregardedMessages.size() + disregarded);
+    }
+
+    private MessageList listFor(Message.Flag flag) {
+        switch (flag) {
             case SENT:
-                sentMessages.add(m);
-                break;
+                return sentMessages;
             case STORED:
-                storedMessages.add(m);
-                break;
+                return storedMessages;
             case DISREGARD:
-                disregardedMessages.add(m);
-                break;
+                return disregardedMessages;
+            default:
+                throw new IllegalArgumentException("Unknown flag: " + flag);
         }
-        updateIndexes(m);
     }
 
     private void updateIndexes(Message m) {
-        if (m.getHash() != null && !messageHashes.contains(m.getHash())) messageHashes.add(m.getHash());
-        if (m.getMessageId() != null && !messageIDs.contains(m.getMessageId())) messageIDs.add(m.getMessageId());
+        index(hashIndex, m.getHash(), m, () -> new ArrayList<>(1));
+        if (seenHashes != null) {
+            seenHashes.put(m.getHash());
+            if (seenHashes.isSaturated()) rebuildSeenHashes(seenHashes.getCapacity() * 2);
+        }
+        index(idIndex, m.getMessageId(), m, () -> new ArrayList<>(1));
+        index(recipientIndex, m.getRecipient(), m, () -> new MessageList(2));
+        index(senderIndex, m.getSender(), m, () -> new MessageList(2));
+        if (textIndex != null) textIndex.add(m);
+        stats.add(m, m.getFlag());
+    }
+
+    /** Removes m from its flag list, falling back to the others if its flag was changed after adding. */
+    private void removeFromStore(Message m) {
+        Message.Flag flag = m.getFlag();
+        int index = listFor(flag).removeMessage(m);
+        for (int i = 0; index < 0 && i < Message.Flag.values().length; i++) {
+            flag = Message.Flag.values()[i];
+            index = listFor(flag).removeMessage(m);
+        }
+        if (index < 0) return;
+        stats.remove(m, flag);
+        for (Listener l : listeners) l.messageRemoved(flag, index);
+    }
+
+    private static <B extends List<Message>> void index(Map<String, B> idx, String key, Message m, Supplier<B> newBucket) {
+        if (key == null) return;
+        idx.computeIfAbsent(key, k -> newBucket.get()).add(m);
+    }
+
+    private static void unindex(Map<String, ? extends List<Message>> idx, String key, Message m) {
+        if (key == null) return;
+        List<Message> bucket = idx.get(key);
+        if (bucket == null) return;
+        bucket.remove(m);
+        if (bucket.isEmpty()) idx.remove(key);
     }
 
     public List<Message> getSentMessages() { return Collections.unmodifiableList(sentMessages); }
     public List<Message> getDisregardedMessages() { return Collections.unmodifiableList(disregardedMessages); }
     public List<Message> getStoredMessages() { return Collections.unmodifiableList(storedMessages); }
-    public List<String> getMessageHashes() { return Collections.unmodifiableList(messageHashes); }
-    public List<String> getMessageIDs() { return Collections.unmodifiableList(messageIDs); }
+    public List<String> getMessageHashes() { return Collections.unmodifiableList(new ArrayList<>(hashIndex.keySet())); }
+    public List<String> getMessageIDs() { return Collections.unmodifiableList(new ArrayList<>(idIndex.keySet())); }
 
+    /** Live, read-only aggregates over this manager's messages. */
+    public MessageStats getStats() { return stats; }
+
+    /**
+     * Live, read-only view formatted lazily per element: it follows later adds and
+     * deletes and throws on modification. Copy it (new ArrayList&lt;&gt;(...)) for a
+     * snapshot.
+     */
     public List<String> getSenderRecipientOfSent() {
-        List<String> out = new ArrayList<>();
-        for (Message m : sentMessages) {
-            out.add(String.format("Sender: %s, Recipient: %s", m.getSender(), m.getRecipient()));
-        }
-        return out;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                Message m = sentMessages.get(index);
+                return String.format("Sender: %s, Recipient: %s", m.getSender(), m.getRecipient());
+            }
+
+            @Override
+            public int size() {
+                return sentMessages.size();
+            }
+        };
     }
 
     public Optional<Message> getLongestSentMessage() {
-        return sentMessages.stream().max(Comparator.comparingInt(m -> m.getText() == null ? 0 : m.getText().length()));
+        return stats.getLongest(Message.Flag.SENT);
     }
 
     public Optional<Message> findByMessageId(String messageId) {
-        List<Message> all = new ArrayList<>();
-        all.addAll(sentMessages);
-        all.addAll(storedMessages);
-        all.addAll(disregardedMessages);
-        return all.stream().filter(m -> messageId.equals(m.getMessageId())).findFirst();
+        long start = metrics.start();
+        try {
+            return lookupMessageId(messageId);
+        } finally {
+            metrics.stop(MessageMetrics.Op.FIND_BY_ID, start);
+        }
+    }
+
+    private Optional<Message> lookupMessageId(String messageId) {
+        List<Message> bucket = idIndex.get(messageId);
+        return bucket == null ? Optional.empty() : byFlagPrecedence(bucket);
+    }
+
+    /** The first sent message, else the first stored, else the first disregarded one. */
+    static Optional<Message> byFlagPrecedence(Iterable<Message> candidates) {
+        Message stored = null, disregarded = null;
+        for (Message m : candidates) {
+            if (m.getFlag() == Message.Flag.SENT) return Optional.of(m);
+            if (m.getFlag() == Message.Flag.STORED && stored == null) stored = m;
+            if (m.getFlag() == Message.Flag.DISREGARD && disregarded == null) disregarded = m;
+        }
+        return Optional.ofNullable(stored != null ? stored : disregarded);
+    }
+
+    /**
+     * Builds a full-text index over the current messages and keeps it up to date from
+     * now on. With ngrams, digit-bearing tokens and the messageId/sender/recipient fields
+     * are also indexed as trigrams so phone and ID fragments match.
+     */
+    public void enableTextSearch(boolean ngrams) {
+        textIndex = new TextIndex(ngrams);
+        for (Message m : sentMessages) textIndex.add(m);
+        for (Message m : storedMessages) textIndex.add(m);
+        for (Message m : disregardedMessages) textIndex.add(m);
+    }
+
+    /** Messages containing every query word, best tf-idf score first. Requires enableTextSearch. */
+    public List<Message> searchText(String query, int limit) {
+        if (textIndex == null) throw new IllegalStateException("text search is not enabled");
+        long start = metrics.start();
+        List<Message> out = textIndex.search(query, limit);
+        metrics.stop(MessageMetrics.Op.SEARCH_TEXT, start);
+        return out;
     }
 
     public List<Message> findAllByRecipient(String recipient) {
-        List<Message> all = new ArrayList<>();
-        all.addAll(sentMessages);
-        all.addAll(storedMessages);
-        return all.stream().filter(m -> recipient.equals(m.getRecipient())).collect(Collectors.toList());
+        long start = metrics.start();
+        List<Message> bucket = recipientIndex.get(recipient);
+        List<Message> out = new ArrayList<>();
+        out.addAll(page(bucket, Message.Flag.SENT, 0, Integer.MAX_VALUE));
+        out.addAll(page(bucket, Message.Flag.STORED, 0, Integer.MAX_VALUE));
+        metrics.stop(MessageMetrics.Op.FIND_BY_RECIPIENT, start);
+        return out;
+    }
+
+    /**
+     * Page through the messages for a recipient in insertion order.
+     * flag may be null to match every flag; offset/limit count matching messages only.
+     */
+    public List<Message> findByRecipient(String recipient, Message.Flag flag, int offset, int limit) {
+        long start = metrics.start();
+        List<Message> out = page(recipientIndex.get(recipient), flag, offset, limit);
+        metrics.stop(MessageMetrics.Op.FIND_BY_RECIPIENT, start);
+        return out;
+    }
+
+    /** Same as findByRecipient but keyed on the sender. */
+    public List<Message> findBySender(String sender, Message.Flag flag, int offset, int limit) {
+        long start = metrics.start();
+        List<Message> out = page(senderIndex.get(sender), flag, offset, limit);
+        metrics.stop(MessageMetrics.Op.FIND_BY_SENDER, start);
+        return out;
+    }
+
+    private static List<Message> page(List<Message> bucket, Message.Flag flag, int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("offset and limit must be >= 0");
+        if (bucket == null || limit == 0) return Collections.emptyList();
+        List<Message> out = new ArrayList<>(Math.min(limit, bucket.size()));
+        int skipped = 0;
+        for (Message m : bucket) {
+            if (flag != null && m.getFlag() != flag) continue;
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            out.add(m);
+            if (out.size() == limit) break;
+        }
+        return out;
+    }
+
+    /**
+     * offset + limit, capped at Integer.MAX_VALUE: how many results to ask each part of
+     * a split store for before merging them and applying pageOf.
+     */
+    static int pageEnd(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("offset and limit must be >= 0");
+        return (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+    }
+
+    /** The offset/limit page of results already merged from the parts of a split store. */
+    static List<Message> pageOf(List<Message> merged, int offset, int limit) {
+        int end = Math.min(merged.size(), pageEnd(offset, limit));
+        if (offset >= end) return Collections.emptyList();
+        return new ArrayList<>(merged.subList(offset, end));
+    }
+
+    /** The stored messages with this hash, oldest first; empty if there are none. */
+    List<Message> withHash(String hash) {
+        List<Message> bucket = hashIndex.get(hash);
+        return bucket == null ? Collections.emptyList() : new ArrayList<>(bucket);
     }
 
     public boolean deleteByHash(String hash) {
-        boolean removed = sentMessages.removeIf(m -> hash.equals(m.getHash()));
-        removed |= storedMessages.removeIf(m -> hash.equals(m.getHash()));
-        removed |= disregardedMessages.removeIf(m -> hash.equals(m.getHash()));
-        if (removed) {
-            messageHashes.removeIf(h -> h.equals(hash));
-            recomputeIds();
+        long start = metrics.start();
+        try {
+            return delete(hash);
+        } finally {
+            metrics.stop(MessageMetrics.Op.DELETE, start);
         }
-        return removed;
     }
 
-    private void recomputeIds() {
-        messageIDs.clear();
-        Set<String> ids = new LinkedHashSet<>();
-        for (Message m : sentMessages) if (m.getMessageId() != null) ids.add(m.getMessageId());
-        for (Message m : storedMessages) if (m.getMessageId() != null) ids.add(m.getMessageId());
-        for (Message m : disregardedMessages) if (m.getMessageId() != null) ids.add(m.getMessageId());
-        messageIDs.addAll(ids);
+    private boolean delete(String hash) {
+        List<Message> matches = hashIndex.remove(hash);
+        if (matches == null) return false;
+        for (Message m : matches) {
+            removeFromStore(m);
+            unindex(idIndex, m.getMessageId(), m);
+            unindex(recipientIndex, m.getRecipient(), m);
+            unindex(senderIndex, m.getSender(), m);
+            if (textIndex != null) textIndex.remove(m);
+        }
+        if (log != null) {
+            log.appendDelete(hash);
+            try {
+                log.compactIfNeeded(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
     }
 
     public String getSentMessagesReport() {
+        long start = metrics.start();
+        String report = buildSentReport(sentMessages);
+        metrics.stop(MessageMetrics.Op.REPORT, start);
+        return report;
+    }
+
+    /**
+     * Streams the sent-messages report to out one message at a time, so memory use does
+     * not depend on the number of messages. sender and recipient filter the report when
+     * non-null (a recipient filter walks only that recipient's index bucket); limit caps
+     * the number of messages written.
+     *
+     * @return number of messages written
+     */
+    public long writeSentMessagesReport(Appendable out, String sender, String recipient, long limit) throws IOException {
+        long start = metrics.start();
+        try {
+            return writeSentReport(out, sentReportSource(recipient), sentReportFilter(sender, recipient), limit);
+        } finally {
+            metrics.stop(MessageMetrics.Op.REPORT, start);
+        }
+    }
+
+    /**
+     * The messages writeSentMessagesReport would write, as references, so a caller can
+     * take them under a lock and write the report after releasing it.
+     */
+    List<Message> getSentReportMessages(String sender, String recipient, long limit) {
+        Predicate<Message> filter = sentReportFilter(sender, recipient);
+        List<Message> out = new ArrayList<>();
+        for (Message m : sentReportSource(recipient)) {
+            if (out.size() >= limit) break;
+            if (filter.test(m)) out.add(m);
+        }
+        return out;
+    }
+
+    // a recipient filter walks only that recipient's index bucket
+    private Iterable<Message> sentReportSource(String recipient) {
+        if (recipient == null) return sentMessages;
+        MessageList bucket = recipientIndex.get(recipient);
+        return bucket == null ? Collections.emptyList() : bucket;
+    }
+
+    private static Predicate<Message> sentReportFilter(String sender, String recipient) {
+        return m -> m.getFlag() == Message.Flag.SENT
+                && (sender == null || sender.equals(m.getSender()))
+                && (recipient == null || recipient.equals(m.getRecipient()));
+    }
+
+    /** Writes the (optionally filtered and limited) sent report to a UTF-8 file. */
+    public long exportSentMessagesReport(String path, String sender, String recipient, long limit) throws IOException {
+        try (Writer w = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            return writeSentMessagesReport(w, sender, recipient, limit);
+        }
+    }
+
+    static String buildSentReport(Iterable<Message> sent) {
         StringBuilder sb = new StringBuilder();
-        sb.append("SENT MESSAGES REPORT\n");
-        sb.append("--------------------\n");
-        for (Message m : sentMessages) {
-            sb.append("Message Hash: ").append(m.getHash()).append("\n");
-            sb.append("Message ID: ").append(m.getMessageId()).append("\n");
-            sb.append("Sender: ").append(m.getSender()).append("\n");
-            sb.append("Recipient: ").append(m.getRecipient()).append("\n");
-            sb.append("Text: ").append(m.getText()).append("\n");
-            sb.append("Flag: ").append(m.getFlag()).append("\n");
-            sb.append("--------------------\n");
+        try {
+            writeSentReport(sb, sent, m -> true, Long.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
         }
         return sb.toString();
     }
 
+    static long writeSentReport(Appendable out, Iterable<Message> sent, Predicate<Message> filter, long limit) throws IOException {
+        writeReportHeader(out);
+        long written = 0;
+        for (Message m : sent) {
+            if (written >= limit) break;
+            if (!filter.test(m)) continue;
+            writeReportEntry(out, m);
+            written++;
+        }
+        return written;
+    }
+
+    static void writeReportHeader(Appendable out) throws IOException {
+        out.append("SENT MESSAGES REPORT\n");
+        out.append("--------------------\n");
+    }
+
+    static void writeReportEntry(Appendable out, Message m) throws IOException {
+        out.append("Message Hash: ").append(m.getHash()).append("\n");
+        out.append("Message ID: ").append(m.getMessageId()).append("\n");
+        out.append("Sender: ").append(m.getSender()).append("\n");
+        out.append("Recipient: ").append(m.getRecipient()).append("\n");
+        out.append("Text: ").append(m.getText()).append("\n");
+        out.append("Flag: ").append(String.valueOf(m.getFlag())).append("\n");
+        out.append("--------------------\n");
+    }
+
     public void readStoredMessagesFromJson(String pathToJson) throws IOException {
+        readStoredMessagesFromJson(pathToJson, null);
+    }
+
+    /**
+     * Streams a JSON array of messages, converting and indexing them in batches
+     * so memory stays bounded regardless of file size. The optional progress callback
+     * receives the running count every PROGRESS_INTERVAL messages and once at the end.
+     *
+     * @return number of messages added
+     */
+    public long readStoredMessagesFromJson(String pathToJson, LongConsumer progress) throws IOException {
+        long start = metrics.start();
+        try {
+            return readJsonBatches(pathToJson, hashStrategy, this::addAll, progress);
+        } finally {
+            metrics.stop(MessageMetrics.Op.IMPORT_JSON, start);
+        }
+    }
+
+    /**
+     * Streaming reader behind readStoredMessagesFromJson. Each batch of (not yet hashed)
+     * messages is handed to sink, which owns the list afterwards.
+     */
+    static long readJsonBatches(String pathToJson, HashStrategy strategy, Consumer<List<Message>> sink,
+                                LongConsumer progress) throws IOException {
         Gson gson = new Gson();
-        Type listType = new TypeToken<List<MessageJson>>(){}.getType();
-        try (FileReader fr = new FileReader(pathToJson)) {
-            List<MessageJson> arr = gson.fromJson(fr, listType);
-            if (arr == null) return;
-            for (MessageJson mj : arr) {
-                Message m = new Message(mj.messageId, mj.sender, mj.recipient, mj.text, mj.flag);
-                addMessage(m);
+        long count = 0;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(Paths.get(pathToJson), StandardCharsets.UTF_8))) {
+            JsonToken first;
+            try {
+                first = reader.peek();
+            } catch (EOFException empty) {
+                return 0;
             }
+            if (first == JsonToken.NULL) return 0;
+            reader.beginArray();
+            List<Message> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            long reported = 0;
+            while (reader.hasNext()) {
+                MessageJson mj = gson.fromJson(reader, MessageJson.class);
+                if (mj != null) batch.add(new Message(mj.messageId, mj.sender, mj.recipient, mj.text, mj.flag, strategy));
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    count += batch.size();
+                    sink.accept(batch);
+                    batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+                    if (progress != null && count - reported >= PROGRESS_INTERVAL) {
+                        progress.accept(count);
+                        reported = count;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                count += batch.size();
+                sink.accept(batch);
+            }
+            reader.endArray();
         }
+        if (progress != null) progress.accept(count);
+        return count;
+    }
+
+    /** One message from a JSON object in the import format; null for a JSON null. */
+    static Message fromJson(Gson gson, String json, HashStrategy strategy) {
+        MessageJson mj = gson.fromJson(json, MessageJson.class);
+        return mj == null ? null : new Message(mj.messageId, mj.sender, mj.recipient, mj.text, mj.flag, strategy);
+    }
+
+    /** Writes every message to a binary snapshot; see MessageSnapshot. */
+    public long writeSnapshot(String path) throws IOException {
+        return MessageSnapshot.write(this, Paths.get(path));
+    }
+
+    /** Loads a snapshot written by writeSnapshot, without re-hashing. */
+    public long readSnapshot(String path) throws IOException {
+        return MessageSnapshot.read(Paths.get(path), this);
     }
 
     private static class MessageJson {
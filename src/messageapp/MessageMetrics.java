@@ -0,0 +1,133 @@
+package messageapp;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Per-operation call counts and latency histograms for a MessageManager, plus store
+ * sizes and time spent computing message hashes. Readable from any thread, as a text
+ * dump or over JMX (see register).
+ *
+ * NOOP is the default for every manager: start() then returns 0 without reading the
+ * clock and stop() returns immediately, so disabled metrics cost a field read and a
+ * branch per call.
+ *
+ * Hash timing is process-wide, because hashing happens in Message, which has no
+ * manager; it is switched on while any enabled MessageMetrics exists.
+ */
+public final class MessageMetrics implements MessageMetricsMXBean {
+
+    public enum Op {
+        ADD, ADD_ALL, DELETE, FIND_BY_ID, FIND_BY_RECIPIENT, FIND_BY_SENDER, SEARCH_TEXT, IMPORT_JSON, REPORT
+    }
+
+    public static final MessageMetrics NOOP = new MessageMetrics(null);
+
+    private static final LatencyHistogram HASH = new LatencyHistogram();
+    private static volatile boolean hashTiming;
+
+    private final boolean enabled;
+    private final Supplier<Map<String, Long>> sizes;
+    private final LatencyHistogram[] ops = new LatencyHistogram[Op.values().length];
+
+    /** sizes is sampled on read and may be racy; null disables the metrics. */
+    MessageMetrics(Supplier<Map<String, Long>> sizes) {
+        this.enabled = sizes != null;
+        this.sizes = sizes;
+        for (int i = 0; i < ops.length; i++) ops[i] = new LatencyHistogram();
+        if (enabled) hashTiming = true;
+    }
+
+    /** Timestamp to pass to stop(), or 0 when disabled. */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void stop(Op op, long start) {
+        if (enabled) ops[op.ordinal()].record(System.nanoTime() - start);
+    }
+
+    static long startHash() {
+        return hashTiming ? System.nanoTime() : 0;
+    }
+
+    static void stopHash(long start) {
+        if (start != 0) HASH.record(System.nanoTime() - start);
+    }
+
+    /** Registers this instance with the platform MBean server as messageapp:type=MessageManager,name=&lt;name&gt;. */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("messageapp:type=MessageManager,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public boolean isEnabled() { return enabled; }
+
+    public long getCount(Op op) { return ops[op.ordinal()].getCount(); }
+
+    public double getMeanMicros(Op op) { return ops[op.ordinal()].getMeanNanos() / 1_000.0; }
+
+    /** Latency at quantile q (e.g. 0.99), accurate to one histogram bucket. */
+    public double getQuantileMicros(Op op, double q) { return ops[op.ordinal()].getQuantileNanos(q) / 1_000.0; }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (Op op : Op.values()) out.put(op.name(), getCount(op));
+        return out;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (Op op : Op.values()) out.put(op.name(), getMeanMicros(op));
+        return out;
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (Op op : Op.values()) out.put(op.name(), getQuantileMicros(op, 0.99));
+        return out;
+    }
+
+    @Override
+    public Map<String, Long> getStoreSizes() {
+        return enabled ? sizes.get() : Collections.emptyMap();
+    }
+
+    @Override
+    public long getHashCount() { return HASH.getCount(); }
+
+    @Override
+    public double getHashMeanMicros() { return HASH.getMeanNanos() / 1_000.0; }
+
+    @Override
+    public String dump() {
+        if (!enabled) return "metrics disabled\n";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-18s %10s %10s %10s %10s %10s%n", "operation", "count", "mean us", "p50 us", "p99 us", "max us"));
+        for (Op op : Op.values()) appendRow(sb, op.name(), ops[op.ordinal()]);
+        appendRow(sb, "HASH (global)", HASH);
+        for (Map.Entry<String, Long> e : getStoreSizes().entrySet()) {
+            sb.append(String.format("%-18s %10d%n", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, LatencyHistogram h) {
+        sb.append(String.format("%-18s %10d %10.1f %10.1f %10.1f %10.1f%n", name, h.getCount(), h.getMeanNanos() / 1_000.0,
+                h.getQuantileNanos(0.5) / 1_000.0, h.getQuantileNanos(0.99) / 1_000.0, h.getMaxNanos() / 1_000.0));
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : ops) h.reset();
+        HASH.reset();
+    }
+}
@@ -0,0 +1,24 @@
+package messageapp;
+
+import java.util.Map;
+
+/** JMX view of MessageMetrics. Latencies are in microseconds, keyed by operation name. */
+public interface MessageMetricsMXBean {
+    boolean isEnabled();
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Double> getMeanMicros();
+
+    Map<String, Double> getP99Micros();
+
+    Map<String, Long> getStoreSizes();
+
+    long getHashCount();
+
+    double getHashMeanMicros();
+
+    String dump();
+
+    void reset();
+}
@@ -0,0 +1,336 @@
+package messageapp;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Headless entry point: runs the MessageManager engine without Swing.
+ *
+ * <pre>
+ *   serve   [--port 8080] [options]     HTTP server on localhost
+ *   import  FILE|- [options]            ingest NDJSON from a file or stdin and exit
+ *   loadgen [--port 8080] [--messages N] [--batch N] [--connections N]
+ *
+ *   options: --log FILE  --dedup REJECT|MERGE  --expected N  --ngrams  --workers N
+ * </pre>
+ *
+ * HTTP endpoints (JSON responses unless noted):
+ * <pre>
+ *   POST   /messages                  NDJSON body, one message per line; replies once indexed
+ *   GET    /messages?id=ID            findByMessageId
+ *   DELETE /messages?hash=HASH        deleteByHash
+ *   GET    /recipients?recipient=R[&amp;flag=F&amp;offset=N&amp;limit=N]
+ *   GET    /senders?sender=S[&amp;flag=F&amp;offset=N&amp;limit=N]
+ *   GET    /search?q=TEXT[&amp;limit=N]    full-text search (--ngrams adds fragments)
+ *   GET    /longest                   longest sent message
+ *   GET    /report[?sender=S&amp;recipient=R&amp;limit=N]   plain text, streamed
+ *   GET    /stats                     plain text counters and latency histograms
+ * </pre>
+ */
+public final class MessageServer {
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_PAGE = 100;
+    private static final int REPORT_PAGE = 1_024;
+
+    private final MessageManager mgr;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IngestPipeline pipeline;
+    private final Gson gson = new Gson();
+    private HttpServer http;
+    private ExecutorService httpThreads;
+
+    MessageServer(MessageManager mgr, int workers) {
+        this.mgr = mgr;
+        this.pipeline = new IngestPipeline(mgr, lock, workers, workers * 4);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        Map<String, String> opts = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--ngrams")) opts.put("ngrams", "true");
+            else if (args[i].startsWith("--") && i + 1 < args.length) opts.put(args[i].substring(2), args[++i]);
+            else positional.add(args[i]);
+        }
+        switch (args[0]) {
+            case "serve":
+                startFromOptions(opts).serve(Integer.parseInt(opts.getOrDefault("port", String.valueOf(DEFAULT_PORT))));
+                break;
+            case "import":
+                if (positional.isEmpty()) {
+                    usage();
+                    return;
+                }
+                importFile(positional.get(0), opts);
+                break;
+            case "loadgen":
+                LoadGenerator.run(opts);
+                break;
+            default:
+                usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: MessageServer serve [--port N] [options]");
+        System.err.println("       MessageServer import FILE|- [options]");
+        System.err.println("       MessageServer loadgen [--port N] [--messages N] [--batch N] [--connections N]");
+        System.err.println("options: --log FILE  --dedup REJECT|MERGE  --expected N  --ngrams  --workers N");
+    }
+
+    private static MessageServer startFromOptions(Map<String, String> opts) throws IOException {
+        MessageManager mgr = new MessageManager();
+        mgr.enableMetrics();
+        mgr.enableTextSearch(Boolean.parseBoolean(opts.getOrDefault("ngrams", "false")));
+        if (opts.containsKey("dedup")) {
+            mgr.setDedupPolicy(DedupPolicy.valueOf(opts.get("dedup").toUpperCase()),
+                    Long.parseLong(opts.getOrDefault("expected", "1000000")));
+        }
+        if (opts.containsKey("log")) {
+            MessageLog log = new MessageLog(Paths.get(opts.get("log")));
+            mgr.attachLog(log);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    log.close();
+                } catch (IOException ignored) {
+                }
+            }));
+        }
+        int workers = Integer.parseInt(opts.getOrDefault("workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        return new MessageServer(mgr, workers);
+    }
+
+    private static void importFile(String file, Map<String, String> opts) throws Exception {
+        MessageServer server = startFromOptions(opts);
+        long start = System.nanoTime();
+        IngestPipeline.BatchResult res;
+        try (BufferedReader in = file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            res = server.pipeline.ingest(in);
+        }
+        server.pipeline.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("received %d, added %d, invalid %d, duplicates %d in %.2f s (%.0f messages/s)%n",
+                res.received, res.added, res.invalid, server.mgr.getDuplicatesSeen(), seconds, res.received / seconds);
+    }
+
+    /** Binds to the loopback interface only and serves until the JVM exits. */
+    void serve(int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpThreads = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        http.setExecutor(httpThreads);
+        http.createContext("/messages", this::handleMessages);
+        http.createContext("/recipients", ex -> handle(ex, "GET", q -> json(read(() ->
+                page(mgr::findByRecipient, q.get("recipient"), q)))));
+        http.createContext("/senders", ex -> handle(ex, "GET", q -> json(read(() ->
+                page(mgr::findBySender, q.get("sender"), q)))));
+        http.createContext("/search", ex -> handle(ex, "GET", q -> json(read(() ->
+                view(mgr.searchText(required(q, "q"), intParam(q, "limit", DEFAULT_PAGE)))))));
+        http.createContext("/longest", ex -> handle(ex, "GET", q -> json(read(() ->
+                mgr.getLongestSentMessage().map(MessageServer::view).orElse(null)))));
+        http.createContext("/stats", ex -> handle(ex, "GET", q -> text(ex, stats())));
+        http.createContext("/report", this::handleReport);
+        http.start();
+        System.out.println("Listening on http://" + http.getAddress().getHostString() + ":" + http.getAddress().getPort());
+    }
+
+    void stop() {
+        if (http != null) http.stop(0);
+        if (httpThreads != null) httpThreads.shutdown();
+        pipeline.close();
+    }
+
+    private void handleMessages(HttpExchange ex) throws IOException {
+        switch (ex.getRequestMethod()) {
+            case "POST":
+                handle(ex, "POST", q -> {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8))) {
+                        IngestPipeline.BatchResult res = pipeline.ingest(in);
+                        Map<String, Integer> out = new LinkedHashMap<>();
+                        out.put("received", res.received);
+                        out.put("added", res.added);
+                        out.put("invalid", res.invalid);
+                        return json(out);
+                    }
+                });
+                break;
+            case "DELETE":
+                handle(ex, "DELETE", q -> {
+                    String hash = required(q, "hash");
+                    boolean deleted;
+                    lock.writeLock().lock();
+                    try {
+                        deleted = mgr.deleteByHash(hash);
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    return json(Collections.singletonMap("deleted", deleted));
+                });
+                break;
+            default:
+                handle(ex, "GET", q -> json(read(() ->
+                        mgr.findByMessageId(required(q, "id")).map(MessageServer::view).orElse(null))));
+        }
+    }
+
+    private void handleReport(HttpExchange ex) throws IOException {
+        handle(ex, "GET", q -> {
+            long limit = longParam(q, "limit", Long.MAX_VALUE);  // before the headers, so a bad value is a 400
+            // The socket is written without the lock: a stalled client holding the read lock
+            // would block the committer, and every reader queued behind it. Entries are
+            // rendered a page at a time under the lock, as messages may be merged meanwhile.
+            List<Message> sent = read(() -> mgr.getSentReportMessages(q.get("sender"), q.get("recipient"), limit));
+            ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            ex.sendResponseHeaders(200, 0);  // chunked
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8))) {
+                MessageManager.writeReportHeader(w);
+                for (int from = 0; from < sent.size(); from += REPORT_PAGE) {
+                    List<Message> page = sent.subList(from, Math.min(sent.size(), from + REPORT_PAGE));
+                    w.write(read(() -> {
+                        StringBuilder sb = new StringBuilder(page.size() * 256);
+                        try {
+                            for (Message m : page) MessageManager.writeReportEntry(sb, m);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);  // StringBuilder never throws
+                        }
+                        return sb.toString();
+                    }));
+                }
+            }
+            return null;
+        });
+    }
+
+    private String stats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ingested ").append(pipeline.getReceived()).append(", added ").append(pipeline.getAdded())
+                .append(", invalid ").append(pipeline.getInvalid()).append(", duplicates ").append(mgr.getDuplicatesSeen()).append('\n');
+        sb.append(mgr.getMetrics().dump());
+        return sb.toString();
+    }
+
+    // ---------- plumbing ----------
+
+    private interface Handler {
+        /** Returns the JSON body to send, or null if the handler already responded. */
+        byte[] handle(Map<String, String> query) throws Exception;
+    }
+
+    private interface Query<T> {
+        T get();
+    }
+
+    private interface PageQuery {
+        List<Message> find(String key, Message.Flag flag, int offset, int limit);
+    }
+
+    private void handle(HttpExchange ex, String method, Handler handler) throws IOException {
+        try {
+            if (!method.equals(ex.getRequestMethod())) {
+                respond(ex, 405, "text/plain", ("Use " + method).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] body = handler.handle(parseQuery(ex.getRequestURI().getRawQuery()));
+            if (body != null) respond(ex, 200, "application/json", body);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            respond(ex, 400, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            respond(ex, 500, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static void respond(HttpExchange ex, int status, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) ex.getResponseBody().write(body);
+    }
+
+    private byte[] json(Object value) {
+        return gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] text(HttpExchange ex, String s) throws IOException {
+        respond(ex, 200, "text/plain", s.getBytes(StandardCharsets.UTF_8));
+        return null;
+    }
+
+    private <T> T read(Query<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static List<Map<String, String>> page(PageQuery find, String key, Map<String, String> q) {
+        if (key == null) throw new IllegalArgumentException("missing key parameter");
+        Message.Flag flag = q.containsKey("flag") ? Message.Flag.valueOf(q.get("flag").toUpperCase()) : null;
+        return view(find.find(key, flag, intParam(q, "offset", 0), intParam(q, "limit", DEFAULT_PAGE)));
+    }
+
+    private static List<Map<String, String>> view(List<Message> messages) {
+        List<Map<String, String>> out = new ArrayList<>(messages.size());
+        for (Message m : messages) out.add(view(m));
+        return out;
+    }
+
+    private static Map<String, String> view(Message m) {
+        Map<String, String> out = new LinkedHashMap<>();
+        out.put("messageId", m.getMessageId());
+        out.put("sender", m.getSender());
+        out.put("recipient", m.getRecipient());
+        out.put("text", m.getText());
+        out.put("flag", String.valueOf(m.getFlag()));
+        out.put("hash", m.getHash());
+        return out;
+    }
+
+    private static Map<String, String> parseQuery(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            out.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static String required(Map<String, String> q, String name) {
+        String v = q.get(name);
+        if (v == null || v.isEmpty()) throw new IllegalArgumentException("missing parameter: " + name);
+        return v;
+    }
+
+    private static int intParam(Map<String, String> q, String name, int def) {
+        return q.containsKey(name) ? Integer.parseInt(q.get(name)) : def;
+    }
+
+    private static long longParam(Map<String, String> q, String name, long def) {
+        return q.containsKey(name) ? Long.parseLong(q.get(name)) : def;
+    }
+}
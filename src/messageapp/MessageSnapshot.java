@@ -0,0 +1,209 @@
+package messageapp;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of a MessageManager, read back through memory-mapped windows.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   header   int magic 'MSGS', short version, byte hash strategy, byte reserved,
+ *            int string count, long message count
+ *   strings  string count x (int UTF-8 length, bytes)
+ *   records  message count x (int messageId ref, int sender ref, int recipient ref,
+ *            int text ref, byte flag, byte hash length, hash bytes)
+ * </pre>
+ * String refs index the string table, -1 meaning null. Hashes are stored as raw digest
+ * bytes, so loading never re-hashes; a hash that isn't hex (length byte 0) is stored as
+ * an int string ref instead.
+ */
+public final class MessageSnapshot {
+
+    private static final int MAGIC = 0x4D534753;
+    private static final short VERSION = 1;
+    private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+    private static final int LOAD_BATCH_SIZE = 8_192;
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+    private static final HashStrategy[] STRATEGIES = HashStrategy.values();
+
+    private MessageSnapshot() {}
+
+    /** Writes every message in the manager (sent, stored, then disregarded) to path. */
+    public static long write(MessageManager mgr, Path path) throws IOException {
+        List<List<Message>> lists = List.of(mgr.getSentMessages(), mgr.getStoredMessages(), mgr.getDisregardedMessages());
+        Map<String, Integer> refs = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        long count = 0;
+        for (List<Message> list : lists) {
+            for (Message m : list) {
+                intern(refs, table, m.getMessageId());
+                intern(refs, table, m.getSender());
+                intern(refs, table, m.getRecipient());
+                intern(refs, table, m.getText());
+                if (hexBytes(m.getHash()) == null) intern(refs, table, m.getHash());
+                count++;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(mgr.getHashStrategy().ordinal());
+            out.writeByte(0);
+            out.writeInt(table.size());
+            out.writeLong(count);
+            for (String s : table) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (List<Message> list : lists) {
+                for (Message m : list) {
+                    out.writeInt(ref(refs, m.getMessageId()));
+                    out.writeInt(ref(refs, m.getSender()));
+                    out.writeInt(ref(refs, m.getRecipient()));
+                    out.writeInt(ref(refs, m.getText()));
+                    out.writeByte(m.getFlag().ordinal());
+                    byte[] hash = hexBytes(m.getHash());
+                    if (hash != null) {
+                        out.writeByte(hash.length);
+                        out.write(hash);
+                    } else {
+                        out.writeByte(0);
+                        out.writeInt(ref(refs, m.getHash()));
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads a snapshot into the manager without re-hashing (unless the manager uses a
+     * different HashStrategy than the one the snapshot was written with).
+     *
+     * @return number of messages loaded
+     */
+    public static long read(Path path, MessageManager mgr) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Window in = new Window(channel);
+            if (in.getInt() != MAGIC) throw new IOException("Not a message snapshot: " + path);
+            short version = in.getShort();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+            HashStrategy strategy = STRATEGIES[in.getByte() & 0xff];
+            in.getByte();
+            int stringCount = in.getInt();
+            long count = in.getLong();
+
+            String[] table = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) table[i] = in.getString();
+
+            List<Message> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+            for (long i = 0; i < count; i++) {
+                String messageId = lookup(table, in.getInt());
+                String sender = lookup(table, in.getInt());
+                String recipient = lookup(table, in.getInt());
+                String text = lookup(table, in.getInt());
+                Message.Flag flag = FLAGS[in.getByte() & 0xff];
+                int hashLen = in.getByte() & 0xff;
+                String hash = hashLen > 0 ? Hashing.toHex(in.getBytes(hashLen)) : lookup(table, in.getInt());
+                batch.add(Message.restore(messageId, sender, recipient, text, flag, strategy, hash));
+                if (batch.size() == LOAD_BATCH_SIZE) {
+                    mgr.addAll(batch);
+                    batch = new ArrayList<>(LOAD_BATCH_SIZE);
+                }
+            }
+            mgr.addAll(batch);
+            return count;
+        }
+    }
+
+    private static void intern(Map<String, Integer> refs, List<String> table, String s) {
+        if (s == null || refs.containsKey(s)) return;
+        refs.put(s, table.size());
+        table.add(s);
+    }
+
+    private static int ref(Map<String, Integer> refs, String s) {
+        return s == null ? -1 : refs.get(s);
+    }
+
+    private static String lookup(String[] table, int ref) throws IOException {
+        if (ref == -1) return null;
+        if (ref < 0 || ref >= table.length) throw new IOException("Corrupt snapshot: string ref " + ref);
+        return table[ref];
+    }
+
+    /** Raw bytes of an even-length lower-case hex string of at most 255 bytes, else null. */
+    private static byte[] hexBytes(String hex) {
+        if (hex == null || hex.isEmpty() || (hex.length() & 1) != 0 || hex.length() > 510) return null;
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = nibble(hex.charAt(2 * i));
+            int lo = nibble(hex.charAt(2 * i + 1));
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    private static int nibble(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    /** Sequential reader over a file mapped in windows, so files beyond 2 GB work too. */
+    private static final class Window {
+        private final FileChannel channel;
+        private final long size;
+        private long base;
+        private MappedByteBuffer buf;
+
+        Window(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            base = position;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, size - position));
+            buf.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            long position = base + buf.position();
+            if (position + n > size) throw new EOFException("Truncated snapshot");
+            if (n > WINDOW_BYTES) throw new IOException("Snapshot entry too large: " + n + " bytes");
+            map(position);
+        }
+
+        int getInt() throws IOException { ensure(4); return buf.getInt(); }
+        long getLong() throws IOException { ensure(8); return buf.getLong(); }
+        short getShort() throws IOException { ensure(2); return buf.getShort(); }
+        byte getByte() throws IOException { ensure(1); return buf.get(); }
+
+        byte[] getBytes(int n) throws IOException {
+            ensure(n);
+            byte[] out = new byte[n];
+            buf.get(out);
+            return out;
+        }
+
+        String getString() throws IOException {
+            int len = getInt();
+            if (len < 0) throw new IOException("Corrupt snapshot: string length " + len);
+            return new String(getBytes(len), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package messageapp;
+
+import java.util.*;
+
+/**
+ * Aggregates that MessageManager keeps up to date on every add and delete, so that
+ * dashboard-style queries don't scan the store. Obtain via MessageManager.getStats().
+ *
+ * Per flag it tracks counts, total text length and a length-ordered tree of messages
+ * (O(log n) to update, ties kept in insertion order). A message instance stored more
+ * than once is counted once per occurrence. Sender and recipient counts are read from
+ * the manager's indexes.
+ */
+public class MessageStats {
+
+    private static final int FLAGS = Message.Flag.values().length;
+
+    private final int[] counts = new int[FLAGS];
+    private final long[] textLength = new long[FLAGS];
+    // length -> message -> occurrences; Message compares by identity
+    private final List<TreeMap<Integer, LinkedHashMap<Message, Integer>>> byLength = new ArrayList<>(FLAGS);
+    private final Map<String, ? extends List<Message>> senderIndex;
+    private final Map<String, ? extends List<Message>> recipientIndex;
+
+    MessageStats(Map<String, ? extends List<Message>> senderIndex, Map<String, ? extends List<Message>> recipientIndex) {
+        this.senderIndex = senderIndex;
+        this.recipientIndex = recipientIndex;
+        for (int i = 0; i < FLAGS; i++) byLength.add(new TreeMap<>());
+    }
+
+    void add(Message m, Message.Flag flag) {
+        int f = flag.ordinal();
+        int len = length(m);
+        counts[f]++;
+        textLength[f] += len;
+        byLength.get(f).computeIfAbsent(len, k -> new LinkedHashMap<>()).merge(m, 1, Integer::sum);
+    }
+
+    void remove(Message m, Message.Flag flag) {
+        int f = flag.ordinal();
+        int len = length(m);
+        TreeMap<Integer, LinkedHashMap<Message, Integer>> tree = byLength.get(f);
+        LinkedHashMap<Message, Integer> bucket = tree.get(len);
+        Integer occurrences = bucket == null ? null : bucket.get(m);
+        if (occurrences == null) return;
+        if (occurrences > 1) {
+            bucket.put(m, occurrences - 1);
+        } else {
+            bucket.remove(m);
+            if (bucket.isEmpty()) tree.remove(len);
+        }
+        counts[f]--;
+        textLength[f] -= len;
+    }
+
+    public int getCount(Message.Flag flag) { return counts[flag.ordinal()]; }
+
+    public int getTotalCount() {
+        int n = 0;
+        for (int c : counts) n += c;
+        return n;
+    }
+
+    /** Sum of text lengths (in chars) of the messages with this flag. */
+    public long getTotalTextLength(Message.Flag flag) { return textLength[flag.ordinal()]; }
+
+    public double getAverageTextLength(Message.Flag flag) {
+        int n = counts[flag.ordinal()];
+        return n == 0 ? 0 : (double) textLength[flag.ordinal()] / n;
+    }
+
+    /** Longest message with this flag; the earliest added wins a tie. */
+    public Optional<Message> getLongest(Message.Flag flag) {
+        Map.Entry<Integer, LinkedHashMap<Message, Integer>> last = byLength.get(flag.ordinal()).lastEntry();
+        return last == null ? Optional.empty() : Optional.of(last.getValue().keySet().iterator().next());
+    }
+
+    /** Up to k messages with this flag, longest first. */
+    public List<Message> getTopLongest(Message.Flag flag, int k) {
+        List<Message> out = new ArrayList<>(Math.min(k, counts[flag.ordinal()]));
+        for (LinkedHashMap<Message, Integer> bucket : byLength.get(flag.ordinal()).descendingMap().values()) {
+            for (Map.Entry<Message, Integer> e : bucket.entrySet()) {
+                for (int i = 0; i < e.getValue(); i++) {
+                    if (out.size() >= k) return out;
+                    out.add(e.getKey());
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Messages from this sender across all flags. */
+    public int getCountBySender(String sender) {
+        List<Message> bucket = senderIndex.get(sender);
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    /** Messages to this recipient across all flags. */
+    public int getCountByRecipient(String recipient) {
+        List<Message> bucket = recipientIndex.get(recipient);
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    public int getDistinctSenders() { return senderIndex.size(); }
+    public int getDistinctRecipients() { return recipientIndex.size(); }
+
+    private static int length(Message m) {
+        return m.getText() == null ? 0 : m.getText().length();
+    }
+}
@@ -0,0 +1,340 @@
+package messageapp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * MessageManager partitioned by recipient over N independent shards, each with its own
+ * lists, indexes and read-write lock.
+ *
+ * Recipient queries go to a single shard. Everything else fans out to all shards in
+ * parallel on the fork-join pool and merges the results back into add order, tracked in
+ * an AddOrder beside the shards. Bulk adds group the batch per shard and commit the
+ * shards in parallel. Each shard persists to its own snapshot file, so shards can be
+ * saved and loaded independently (see saveShard/loadShard); loaded messages are ordered
+ * after everything already in the store, in the order the file holds them.
+ *
+ * Add numbers are taken while holding the write locks of the shards being added to, so
+ * every shard commits in number order and the unfiltered report can stream a merge of
+ * the shards' live lists instead of copying them.
+ *
+ * The partition function is String.hashCode of the recipient, which the JDK specifies,
+ * so shard files stay valid across runs as long as the shard count is unchanged.
+ */
+public class ShardedMessageManager {
+
+    private final HashStrategy hashStrategy;
+    private final MessageManager[] shards;
+    private final ReadWriteLock[] locks;
+    private final AddOrder order = new AddOrder();
+
+    public ShardedMessageManager(int shardCount) {
+        this(HashStrategy.SHA_256, shardCount);
+    }
+
+    public ShardedMessageManager(HashStrategy hashStrategy, int shardCount) {
+        if (shardCount <= 0) throw new IllegalArgumentException("shardCount must be > 0");
+        this.hashStrategy = Objects.requireNonNull(hashStrategy);
+        shards = new MessageManager[shardCount];
+        locks = new ReadWriteLock[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new MessageManager(hashStrategy);
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public HashStrategy getHashStrategy() { return hashStrategy; }
+
+    public int getShardCount() { return shards.length; }
+
+    /** Shard that holds (or would hold) messages for this recipient. */
+    public int shardOf(String recipient) {
+        if (recipient == null) return 0;
+        int h = recipient.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    /** Dedup per shard is exact: equal hashes imply equal recipients, hence the same shard. */
+    public void setDedupPolicy(DedupPolicy policy, long expectedMessages) {
+        forEachShard(mm -> {
+            mm.setDedupPolicy(policy, expectedMessages / shards.length);
+            return null;
+        }, true);
+    }
+
+    /** @return false if the dedup policy dropped the message */
+    public boolean addMessage(Message m) {
+        return write(shardOf(m.getRecipient()), mm -> {
+            long number = order.reserve(1);
+            if (!mm.addMessage(m)) return false;
+            order.record(m, number);
+            return true;
+        });
+    }
+
+    /**
+     * Groups the batch by shard and commits the groups in parallel; each shard hashes
+     * its own part. The shards' write locks are taken together, in shard order, so the
+     * batch is numbered in its own order while no other add can slip in between.
+     *
+     * @return number of messages added, i.e. not dropped as duplicates
+     */
+    public int addAll(Collection<? extends Message> messages) {
+        if (messages.isEmpty()) return 0;
+        List<List<Message>> byShard = new ArrayList<>(shards.length);
+        List<List<Long>> numbers = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<>());
+            numbers.add(new ArrayList<>());
+        }
+        for (Message m : messages) byShard.get(shardOf(m.getRecipient())).add(m);
+        int[] touched = IntStream.range(0, shards.length).filter(s -> !byShard.get(s).isEmpty()).toArray();
+        for (int s : touched) locks[s].writeLock().lock();
+        try {
+            long number = order.reserve(messages.size());
+            for (Message m : messages) numbers.get(shardOf(m.getRecipient())).add(number++);
+            // the fork-join workers commit under the locks this thread holds
+            return Arrays.stream(touched).parallel().map(s -> {
+                int added = shards[s].addAll(byShard.get(s));
+                order.recordAdded(shards[s], byShard.get(s), numbers.get(s), added);
+                return added;
+            }).sum();
+        } finally {
+            for (int i = touched.length - 1; i >= 0; i--) locks[touched[i]].writeLock().unlock();
+        }
+    }
+
+    /** Fans out, since the hash doesn't say which recipient (shard) it belongs to. */
+    public boolean deleteByHash(String hash) {
+        boolean removed = false;
+        for (boolean r : forEachShard(mm -> delete(mm, hash), true)) removed |= r;
+        return removed;
+    }
+
+    public List<Message> getSentMessages() { return merged(MessageManager::getSentMessages); }
+    public List<Message> getStoredMessages() { return merged(MessageManager::getStoredMessages); }
+    public List<Message> getDisregardedMessages() { return merged(MessageManager::getDisregardedMessages); }
+
+    /** Distinct hashes in the order they were first added. */
+    public List<String> getMessageHashes() {
+        Set<String> out = new LinkedHashSet<>();
+        for (Message m : allMessages()) out.add(m.getHash());
+        return Collections.unmodifiableList(new ArrayList<>(out));
+    }
+
+    /** Distinct message IDs in the order they were first added. */
+    public List<String> getMessageIDs() {
+        Set<String> out = new LinkedHashSet<>();
+        for (Message m : allMessages()) if (m.getMessageId() != null) out.add(m.getMessageId());
+        return Collections.unmodifiableList(new ArrayList<>(out));
+    }
+
+    public int size() {
+        int n = 0;
+        for (int c : forEachShard(mm -> mm.getStats().getTotalCount(), false)) n += c;
+        return n;
+    }
+
+    /** Combines each shard's longest; the earliest added wins a tie. */
+    public Optional<Message> getLongestSentMessage() {
+        Message best = null;
+        long bestNumber = Long.MAX_VALUE;
+        for (AddOrder.Run longest : forEachShard(mm -> order.run(asList(mm.getLongestSentMessage())), false)) {
+            if (longest.messages.length == 0) continue;
+            Message m = longest.messages[0];
+            int cmp = best == null ? 1 : Integer.compare(length(m), length(best));
+            if (cmp > 0 || (cmp == 0 && longest.keys[0] < bestNumber)) {
+                best = m;
+                bestNumber = longest.keys[0];
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    public Optional<Message> findByMessageId(String messageId) {
+        List<AddOrder.Run> found = forEachShard(mm -> order.run(asList(mm.findByMessageId(messageId))), false);
+        return MessageManager.byFlagPrecedence(AddOrder.merge(found));
+    }
+
+    public List<Message> findAllByRecipient(String recipient) {
+        return read(shardOf(recipient), mm -> mm.findAllByRecipient(recipient));
+    }
+
+    public List<Message> findByRecipient(String recipient, Message.Flag flag, int offset, int limit) {
+        return read(shardOf(recipient), mm -> mm.findByRecipient(recipient, flag, offset, limit));
+    }
+
+    public List<Message> findBySender(String sender, Message.Flag flag, int offset, int limit) {
+        int end = MessageManager.pageEnd(offset, limit);
+        List<AddOrder.Run> parts = forEachShard(mm -> order.run(mm.findBySender(sender, flag, 0, end)), false);
+        return MessageManager.pageOf(AddOrder.merge(parts), offset, limit);
+    }
+
+    public String getSentMessagesReport() {
+        return MessageManager.buildSentReport(getSentMessages());
+    }
+
+    /**
+     * As MessageManager.writeSentMessagesReport; a recipient filter reads only that shard.
+     * Otherwise every shard's read lock is held while the report streams a merge of their
+     * sent lists, so memory use does not depend on the number of messages.
+     */
+    public long writeSentMessagesReport(Appendable out, String sender, String recipient, long limit) throws IOException {
+        if (recipient != null) {
+            int s = shardOf(recipient);
+            locks[s].readLock().lock();
+            try {
+                return shards[s].writeSentMessagesReport(out, sender, recipient, limit);
+            } finally {
+                locks[s].readLock().unlock();
+            }
+        }
+        for (ReadWriteLock l : locks) l.readLock().lock();
+        try {
+            List<List<Message>> sent = new ArrayList<>(shards.length);
+            for (MessageManager mm : shards) sent.add(mm.getSentMessages());
+            return MessageManager.writeSentReport(out, () -> order.inAddOrder(sent),
+                    m -> sender == null || sender.equals(m.getSender()), limit);
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) locks[i].readLock().unlock();
+        }
+    }
+
+    public void readStoredMessagesFromJson(String pathToJson) throws IOException {
+        readStoredMessagesFromJson(pathToJson, null);
+    }
+
+    public long readStoredMessagesFromJson(String pathToJson, LongConsumer progress) throws IOException {
+        return MessageManager.readJsonBatches(pathToJson, hashStrategy, this::addAll, progress);
+    }
+
+    /** Writes every shard to dir/shard-&lt;i&gt;-of-&lt;n&gt;.snap in parallel; returns the message count. */
+    public long save(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return sum(IntStream.range(0, shards.length).parallel().mapToLong(s -> unchecked(() -> saveShard(s, dir))));
+    }
+
+    /** Loads every shard file written by save (for the same shard count) in parallel. */
+    public long load(Path dir) throws IOException {
+        for (int s = 0; s < shards.length; s++) {
+            if (!Files.exists(shardFile(dir, s))) throw new IOException("Missing shard file: " + shardFile(dir, s));
+        }
+        return sum(IntStream.range(0, shards.length).parallel().mapToLong(s -> unchecked(() -> loadShard(s, dir))));
+    }
+
+    public long saveShard(int shard, Path dir) throws IOException {
+        locks[shard].readLock().lock();
+        try {
+            return MessageSnapshot.write(shards[shard], shardFile(dir, shard));
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    public long loadShard(int shard, Path dir) throws IOException {
+        locks[shard].writeLock().lock();
+        try {
+            long n = MessageSnapshot.read(shardFile(dir, shard), shards[shard]);
+            numberLoaded(shards[shard]);
+            return n;
+        } finally {
+            locks[shard].writeLock().unlock();
+        }
+    }
+
+    /** Numbers the shard's messages that have none, in first-added order of their hashes. */
+    private void numberLoaded(MessageManager shard) {
+        for (String hash : shard.getMessageHashes()) {
+            for (Message m : shard.withHash(hash)) if (!order.has(m)) order.record(m, order.reserve(1));
+        }
+    }
+
+    private boolean delete(MessageManager shard, String hash) {
+        List<Message> gone = shard.withHash(hash);
+        if (!shard.deleteByHash(hash)) return false;
+        for (Message m : gone) order.forget(m);
+        return true;
+    }
+
+    private Path shardFile(Path dir, int shard) {
+        return dir.resolve("shard-" + shard + "-of-" + shards.length + ".snap");
+    }
+
+    private <T> T read(int s, Function<MessageManager, T> query) {
+        locks[s].readLock().lock();
+        try {
+            return query.apply(shards[s]);
+        } finally {
+            locks[s].readLock().unlock();
+        }
+    }
+
+    private <T> T write(int s, Function<MessageManager, T> update) {
+        locks[s].writeLock().lock();
+        try {
+            return update.apply(shards[s]);
+        } finally {
+            locks[s].writeLock().unlock();
+        }
+    }
+
+    /** Runs op on every shard in parallel, results in shard order. */
+    private <T> List<T> forEachShard(Function<MessageManager, T> op, boolean writes) {
+        List<T> out = new ArrayList<>(shards.length);
+        IntStream.range(0, shards.length).parallel()
+                .mapToObj(s -> writes ? write(s, op) : read(s, op))
+                .forEachOrdered(out::add);
+        return out;
+    }
+
+    /** Each shard's (copied) view merged in add order; shards are read one at a time. */
+    private List<Message> merged(Function<MessageManager, List<Message>> view) {
+        return Collections.unmodifiableList(AddOrder.merge(forEachShard(mm -> order.run(view.apply(mm)), false)));
+    }
+
+    private List<Message> allMessages() {
+        return merged(mm -> {
+            List<Message> out = new ArrayList<>(mm.getSentMessages());
+            out.addAll(mm.getStoredMessages());
+            out.addAll(mm.getDisregardedMessages());
+            return out;
+        });
+    }
+
+    private static List<Message> asList(Optional<Message> m) {
+        return m.map(Collections::singletonList).orElse(Collections.emptyList());
+    }
+
+    private static int length(Message m) {
+        return m.getText() == null ? 0 : m.getText().length();
+    }
+
+    private interface IoTask {
+        long run() throws IOException;
+    }
+
+    private static long unchecked(IoTask task) {
+        try {
+            return task.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long sum(LongStream counts) throws IOException {
+        try {
+            return counts.sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package messageapp;
+
+import java.util.*;
+
+/**
+ * In-memory inverted index over message text, maintained by MessageManager.
+ *
+ * Text is split on anything that isn't a letter or digit and lower-cased. With n-grams
+ * enabled, every token containing a digit (phone numbers, IDs) is also indexed as
+ * trigrams, together with the messageId, sender and recipient fields, so a query like
+ * "8884" finds "+27838884567". Grams only narrow the candidates: a fragment match is
+ * confirmed against the tokens, since a message's grams may come from several of them.
+ * A query matches messages containing all of its words and is ranked by tf-idf.
+ */
+final class TextIndex {
+
+    private static final int GRAM = 3;
+    private static final String GRAM_PREFIX = "\u0000";  // keeps grams apart from whole words
+
+    private final boolean ngrams;
+    // term -> (message -> term frequency)
+    private final Map<String, Map<Message, Integer>> postings = new HashMap<>();
+    private int documents;
+
+    TextIndex(boolean ngrams) {
+        this.ngrams = ngrams;
+    }
+
+    void add(Message m) {
+        for (Map.Entry<String, Integer> e : terms(m).entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new HashMap<>(4)).put(m, e.getValue());
+        }
+        documents++;
+    }
+
+    void remove(Message m) {
+        for (String term : terms(m).keySet()) {
+            Map<Message, Integer> docs = postings.get(term);
+            if (docs == null) continue;
+            docs.remove(m);
+            if (docs.isEmpty()) postings.remove(term);
+        }
+        documents--;
+    }
+
+    /**
+     * Messages containing every query word (a digit-bearing word also matches as a
+     * fragment when n-grams are on), best tf-idf score first. Work is proportional to
+     * the rarest word's postings, not to the size of the store.
+     */
+    List<Message> search(String query, int limit) {
+        if (limit <= 0) return Collections.emptyList();
+        List<Clause> clauses = new ArrayList<>();
+        for (String token : new LinkedHashSet<>(tokenize(query))) clauses.add(new Clause(token));
+        if (clauses.isEmpty()) return Collections.emptyList();
+        clauses.sort(Comparator.comparingInt(Clause::estimate));
+
+        PriorityQueue<Map.Entry<Message, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Message m : clauses.get(0).candidates()) {
+            double score = 0;
+            boolean all = true;
+            for (Clause c : clauses) {
+                double cs = c.score(m);
+                if (cs < 0) {
+                    all = false;
+                    break;
+                }
+                score += cs;
+            }
+            if (!all) continue;
+            top.add(new AbstractMap.SimpleEntry<>(m, score));
+            if (top.size() > limit) top.poll();
+        }
+        List<Message> out = new ArrayList<>(top.size());
+        while (!top.isEmpty()) out.add(top.poll().getKey());
+        Collections.reverse(out);
+        return out;
+    }
+
+    /** One query word: the word itself, or (with n-grams) all of its trigrams. */
+    private final class Clause {
+        private final String token;
+        private final Map<Message, Integer> word;
+        private final List<Map<Message, Integer>> grams = new ArrayList<>();
+        private final double idf;
+
+        Clause(String token) {
+            this.token = token;
+            word = postings.getOrDefault(token, Collections.emptyMap());
+            idf = Math.log(1.0 + (double) documents / Math.max(1, word.size()));
+            if (ngrams && hasDigit(token)) {
+                Map<String, Integer> g = new HashMap<>();
+                addGrams(token, g);
+                for (String gram : g.keySet()) grams.add(postings.getOrDefault(gram, Collections.emptyMap()));
+                grams.sort(Comparator.comparingInt(Map::size));
+            }
+        }
+
+        int estimate() {
+            return word.size() + (grams.isEmpty() ? 0 : grams.get(0).size());
+        }
+
+        Collection<Message> candidates() {
+            if (grams.isEmpty()) return word.keySet();
+            Set<Message> out = new LinkedHashSet<>(word.keySet());
+            out.addAll(grams.get(0).keySet());
+            return out;
+        }
+
+        /** tf-idf contribution, or -1 if m doesn't match this word. */
+        double score(Message m) {
+            Integer tf = word.get(m);
+            if (tf != null) return idf * tf / (tf + 1.0);
+            if (grams.isEmpty()) return -1;
+            for (Map<Message, Integer> g : grams) if (!g.containsKey(m)) return -1;
+            if (!containsFragment(m, token)) return -1;
+            return idf * 0.25;  // fragment match ranks below a whole-word match
+        }
+    }
+
+    private Map<String, Integer> terms(Message m) {
+        Map<String, Integer> out = new HashMap<>();
+        for (String token : tokenize(m.getText())) {
+            out.merge(token, 1, Integer::sum);
+            if (ngrams && hasDigit(token)) addGrams(token, out);
+        }
+        if (ngrams) {
+            for (String field : new String[]{m.getMessageId(), m.getSender(), m.getRecipient()}) {
+                for (String token : tokenize(field)) addGrams(token, out);
+            }
+        }
+        return out;
+    }
+
+    /** Whether one of m's gram-indexed tokens contains the fragment. */
+    private static boolean containsFragment(Message m, String fragment) {
+        for (String token : tokenize(m.getText())) {
+            if (hasDigit(token) && token.contains(fragment)) return true;
+        }
+        for (String field : new String[]{m.getMessageId(), m.getSender(), m.getRecipient()}) {
+            for (String token : tokenize(field)) if (token.contains(fragment)) return true;
+        }
+        return false;
+    }
+
+    private static void addGrams(String token, Map<String, Integer> out) {
+        if (token.length() < GRAM) {
+            out.merge(GRAM_PREFIX + token, 1, Integer::sum);
+            return;
+        }
+        for (int i = 0; i + GRAM <= token.length(); i++) {
+            out.merge(GRAM_PREFIX + token.substring(i, i + GRAM), 1, Integer::sum);
+        }
+    }
+
+    static List<String> tokenize(String s) {
+        if (s == null || s.isEmpty()) return Collections.emptyList();
+        List<String> out = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean word = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (word && start < 0) start = i;
+            if (!word && start >= 0) {
+                out.add(s.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    private static boolean hasDigit(String token) {
+        for (int i = 0; i < token.length(); i++) if (Character.isDigit(token.charAt(i))) return true;
+        return false;
+    }
+}
@@ -0,0 +1,357 @@
+package messageapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Message store that keeps only recently used messages on the heap.
+ *
+ * Every message is appended to a segment file (MessageCodec records, each prefixed by
+ * an int length) when added, so evicting it from the hot tier just drops the object.
+ * The hot tier is an LRU bounded by an estimate of retained bytes. In memory the store
+ * keeps only small index entries: hash, messageId and recipient map to "refs", the
+ * record's file offset shifted left by two with the flag ordinal in the low bits, so
+ * flag filtering and precedence never touch the disk. A miss faults the record back in
+ * with one positional read and makes it hot again. The hot tier holds its own copies and
+ * every lookup returns a fresh one, so changing an added or returned message never
+ * reaches the store, as with CompactMessageStore.
+ *
+ * The segment is a cache tier, not persistence: it is truncated on open and deleted on
+ * close (use MessageLog or MessageSnapshot for durability). Deleted records become
+ * garbage, and the segment is rewritten once garbage outnumbers live records. Not
+ * thread-safe, like MessageManager.
+ *
+ * The store stands alone rather than backing MessageManager: the manager's flag lists
+ * and listeners hold every Message on the heap, which is what this store avoids. Fill
+ * it straight from JSON with readStoredMessagesFromJson, or copy a manager with of().
+ */
+public class TieredMessageStore implements Closeable {
+
+    private static final Message.Flag[] FLAGS = Message.Flag.values();
+    private static final long COMPACT_MIN_GARBAGE = 10_000;
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;  // object headers, fields, String headers
+
+    private final Path path;
+    private final HashStrategy hashStrategy;
+    private final long maxHotBytes;
+    private FileChannel channel;
+    private long end;
+
+    private final Map<String, Refs> hashIndex = new LinkedHashMap<>();
+    private final Map<String, Refs> idIndex = new HashMap<>();
+    private final Map<String, Refs> recipientIndex = new HashMap<>();
+    private final int[] liveByFlag = new int[FLAGS.length];
+    private long garbage;
+
+    private final LinkedHashMap<Long, Message> hot = new LinkedHashMap<>(256, 0.75f, true);
+    private long hotBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TieredMessageStore(Path segment, long maxHotBytes) throws IOException {
+        this(segment, maxHotBytes, HashStrategy.SHA_256);
+    }
+
+    public TieredMessageStore(Path segment, long maxHotBytes, HashStrategy hashStrategy) throws IOException {
+        if (maxHotBytes < 0) throw new IllegalArgumentException("maxHotBytes must be >= 0");
+        this.path = segment;
+        this.maxHotBytes = maxHotBytes;
+        this.hashStrategy = Objects.requireNonNull(hashStrategy);
+        this.channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Copies every message of the manager into a new tiered store. */
+    public static TieredMessageStore of(MessageManager mgr, Path segment, long maxHotBytes) throws IOException {
+        TieredMessageStore store = new TieredMessageStore(segment, maxHotBytes, mgr.getHashStrategy());
+        store.addAll(mgr.getSentMessages());
+        store.addAll(mgr.getStoredMessages());
+        store.addAll(mgr.getDisregardedMessages());
+        return store;
+    }
+
+    public void readStoredMessagesFromJson(String pathToJson) throws IOException {
+        readStoredMessagesFromJson(pathToJson, null);
+    }
+
+    /**
+     * Streams a JSON array in MessageManager's format straight into the store, batch by
+     * batch, so at most one batch plus the hot tier is on the heap.
+     *
+     * @return number of messages added
+     */
+    public long readStoredMessagesFromJson(String pathToJson, LongConsumer progress) throws IOException {
+        try {
+            return MessageManager.readJsonBatches(pathToJson, hashStrategy, batch -> {
+                try {
+                    addAll(batch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, progress);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void add(Message m) throws IOException {
+        addAll(Collections.singletonList(m));
+    }
+
+    /** Hashes in parallel, then appends the whole batch to the segment in one write. */
+    public void addAll(Collection<? extends Message> messages) throws IOException {
+        if (messages.isEmpty()) return;
+        messages.parallelStream().forEach(m -> MessageManager.adopt(m, hashStrategy));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(messages.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        long[] refs = new long[messages.size()];
+        int i = 0;
+        for (Message m : messages) {
+            refs[i++] = (end + bytes.size()) << 2 | m.getFlag().ordinal();
+            record.reset();
+            MessageCodec.write(recordOut, m);
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        while (buf.hasRemaining()) channel.write(buf, end + buf.position());
+        end += buf.limit();
+
+        i = 0;
+        for (Message m : messages) {
+            long ref = refs[i++];
+            index(hashIndex, m.getHash(), ref);
+            index(idIndex, m.getMessageId(), ref);
+            index(recipientIndex, m.getRecipient(), ref);
+            liveByFlag[m.getFlag().ordinal()]++;
+            makeHot(ref >>> 2, copy(m));
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (int c : liveByFlag) n += c;
+        return n;
+    }
+
+    public int count(Message.Flag flag) { return liveByFlag[flag.ordinal()]; }
+
+    public Optional<Message> findByHash(String hash) throws IOException {
+        Refs refs = hashIndex.get(hash);
+        return refs == null ? Optional.empty() : Optional.of(load(refs.get(0)));
+    }
+
+    /** Same precedence as MessageManager: sent, then stored, then disregarded. */
+    public Optional<Message> findByMessageId(String messageId) throws IOException {
+        Refs refs = idIndex.get(messageId);
+        if (refs == null) return Optional.empty();
+        long best = -1;
+        for (int i = 0; i < refs.size; i++) {
+            long ref = refs.get(i);
+            if (best < 0 || (ref & 3) < (best & 3)) best = ref;
+            if ((best & 3) == Message.Flag.SENT.ordinal()) break;
+        }
+        return Optional.of(load(best));
+    }
+
+    /** Sent then stored messages for the recipient, each in insertion order. */
+    public List<Message> findAllByRecipient(String recipient) throws IOException {
+        Refs refs = recipientIndex.get(recipient);
+        if (refs == null) return new ArrayList<>();
+        List<Message> out = new ArrayList<>(refs.size);
+        for (Message.Flag flag : new Message.Flag[]{Message.Flag.SENT, Message.Flag.STORED}) {
+            for (int i = 0; i < refs.size; i++) {
+                long ref = refs.get(i);
+                if ((ref & 3) == flag.ordinal()) out.add(load(ref));
+            }
+        }
+        return out;
+    }
+
+    public boolean deleteByHash(String hash) throws IOException {
+        Refs refs = hashIndex.remove(hash);
+        if (refs == null) return false;
+        for (int i = 0; i < refs.size; i++) {
+            long ref = refs.get(i);
+            // leaves the hit/miss counters and the LRU order alone
+            Message m = hot.remove(ref >>> 2);
+            if (m != null) hotBytes -= weight(m);
+            else m = decode(readRecord(ref >>> 2));
+            unindex(idIndex, m.getMessageId(), ref);
+            unindex(recipientIndex, m.getRecipient(), ref);
+            liveByFlag[(int) (ref & 3)]--;
+            garbage++;
+        }
+        if (garbage >= COMPACT_MIN_GARBAGE && garbage >= size()) compact();
+        return true;
+    }
+
+    // ---------- metrics ----------
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; }
+
+    /** Share of lookups served from the hot tier, or 0 before the first lookup. */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int getHotCount() { return hot.size(); }
+    public long getHotBytes() { return hotBytes; }
+    public long getSegmentBytes() { return end; }
+
+    public void resetMetrics() {
+        hits = misses = evictions = 0;
+    }
+
+    /** Rewrites the segment with only live records, keeping their order. */
+    public void compact() throws IOException {
+        long[] live = new long[size()];
+        int n = 0;
+        for (Refs refs : hashIndex.values()) for (int i = 0; i < refs.size; i++) live[n++] = refs.get(i) >>> 2;
+        Arrays.sort(live, 0, n);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        Map<Long, Long> moved = new HashMap<>(n * 2);
+        long written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            for (int i = 0; i < n; i++) {
+                byte[] record = readRecord(live[i]);
+                moved.put(live[i], written);
+                out.writeInt(record.length);
+                out.write(record);
+                written += 4 + record.length;
+            }
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = written;
+        garbage = 0;
+
+        for (Map<String, Refs> idx : List.of(hashIndex, idIndex, recipientIndex)) {
+            for (Refs refs : idx.values()) {
+                for (int i = 0; i < refs.size; i++) {
+                    long ref = refs.refs[i];
+                    refs.refs[i] = moved.get(ref >>> 2) << 2 | (ref & 3);
+                }
+            }
+        }
+        List<Map.Entry<Long, Message>> entries = new ArrayList<>(hot.entrySet());
+        hot.clear();
+        for (Map.Entry<Long, Message> e : entries) hot.put(moved.get(e.getKey()), e.getValue());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    private Message load(long ref) throws IOException {
+        long offset = ref >>> 2;
+        Message m = hot.get(offset);
+        if (m != null) {
+            hits++;
+            return copy(m);
+        }
+        misses++;
+        m = decode(readRecord(offset));
+        makeHot(offset, m);
+        return copy(m);
+    }
+
+    private static Message copy(Message m) {
+        return Message.restore(m.getMessageId(), m.getSender(), m.getRecipient(), m.getText(), m.getFlag(),
+                m.getHashStrategy(), m.getHash());
+    }
+
+    private static Message decode(byte[] record) throws IOException {
+        return MessageCodec.read(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    private byte[] readRecord(long offset) throws IOException {
+        ByteBuffer len = ByteBuffer.allocate(4);
+        readFully(len, offset);
+        int n = len.getInt(0);
+        if (n < 0 || offset + 4 + n > end) throw new IOException("Corrupt segment record at " + offset);
+        ByteBuffer record = ByteBuffer.allocate(n);
+        readFully(record, offset + 4);
+        return record.array();
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) throw new EOFException("Truncated segment");
+        }
+    }
+
+    private void makeHot(long offset, Message m) {
+        Message previous = hot.put(offset, m);
+        if (previous != null) hotBytes -= weight(previous);
+        hotBytes += weight(m);
+        Iterator<Map.Entry<Long, Message>> it = hot.entrySet().iterator();
+        while (hotBytes > maxHotBytes && it.hasNext()) {
+            hotBytes -= weight(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long weight(Message m) {
+        return MESSAGE_OVERHEAD_BYTES + 2L * (length(m.getMessageId()) + length(m.getSender())
+                + length(m.getRecipient()) + length(m.getText()) + length(m.getHash()));
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static void index(Map<String, Refs> idx, String key, long ref) {
+        if (key == null) return;
+        idx.computeIfAbsent(key, k -> new Refs()).add(ref);
+    }
+
+    private static void unindex(Map<String, Refs> idx, String key, long ref) {
+        if (key == null) return;
+        Refs refs = idx.get(key);
+        if (refs == null) return;
+        refs.remove(ref);
+        if (refs.size == 0) idx.remove(key);
+    }
+
+    /** Growable long array of refs in insertion order. */
+    private static final class Refs {
+        long[] refs = new long[1];
+        int size;
+
+        long get(int i) { return refs[i]; }
+
+        void add(long ref) {
+            if (size == refs.length) refs = Arrays.copyOf(refs, size * 2);
+            refs[size++] = ref;
+        }
+
+        void remove(long ref) {
+            for (int i = 0; i < size; i++) {
+                if (refs[i] != ref) continue;
+                System.arraycopy(refs, i + 1, refs, i, size - i - 1);
+                size--;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompactMessageStoreTest {
+
+    private static Message msg(String id, String text, Message.Flag flag) {
+        return new Message(id, "+27831", "+27820", text, flag);
+    }
+
+    @Test
+    public void deleteAndReinsertThroughTombstones() {
+        CompactMessageStore store = new CompactMessageStore();
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            Message m = msg("id" + i, "text " + i, Message.Flag.values()[i % 3]);
+            store.add(m);
+            hashes.add(m.getHash());
+        }
+        for (int i = 0; i < 1_000; i += 2) assertTrue(store.deleteByHash(hashes.get(i)));
+        assertFalse(store.deleteByHash(hashes.get(0)));
+        assertEquals(500, store.size());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(i % 2 == 1, store.findByHash(hashes.get(i)).isPresent());
+            assertEquals(i % 2 == 1, store.findByMessageId("id" + i).isPresent());
+        }
+
+        // re-insert the deleted half; lookups must see past the tombstones
+        for (int i = 0; i < 1_000; i += 2) store.add(msg("id" + i, "text " + i, Message.Flag.values()[i % 3]));
+        assertEquals(1_000, store.size());
+        for (int i = 0; i < 1_000; i++) {
+            Message found = store.findByHash(hashes.get(i)).orElseThrow();
+            assertEquals("text " + i, found.getText());
+            assertEquals(hashes.get(i), found.getHash());
+            assertEquals("id" + i, store.findByMessageId("id" + i).orElseThrow().getMessageId());
+        }
+    }
+
+    @Test
+    public void flagViewsSkipDeletedRows() {
+        CompactMessageStore store = new CompactMessageStore(HashStrategy.MURMUR3_128);
+        Message a = msg("a", "a", Message.Flag.SENT);
+        Message b = msg("b", "b", Message.Flag.SENT);
+        Message c = msg("c", "c", Message.Flag.STORED);
+        store.addAll(Arrays.asList(a, b, c));
+        store.deleteByHash(a.getHash());
+
+        List<Message> sent = store.getSentMessages();
+        assertEquals(1, sent.size());
+        assertEquals("b", sent.get(0).getMessageId());
+        assertEquals(1, store.count(Message.Flag.STORED));
+        assertEquals(0, store.getDisregardedMessages().size());
+        assertEquals(2, store.findAllByRecipient("+27820").size());
+        assertTrue(store.findAllByRecipient("nobody").isEmpty());
+    }
+
+    @Test
+    public void findByMessageIdPrefersSentThenStored() {
+        CompactMessageStore store = new CompactMessageStore();
+        store.add(msg("dup", "disregarded", Message.Flag.DISREGARD));
+        store.add(msg("dup", "stored", Message.Flag.STORED));
+        store.add(msg("dup", "sent", Message.Flag.SENT));
+        store.add(msg("dup", "sent later", Message.Flag.SENT));
+        assertEquals("sent", store.findByMessageId("dup").orElseThrow().getText());
+
+        store.deleteByHash(store.findByMessageId("dup").orElseThrow().getHash());
+        assertEquals("sent later", store.findByMessageId("dup").orElseThrow().getText());
+        assertFalse(store.findByMessageId("missing").isPresent());
+    }
+
+    @Test
+    public void rowsSpanSeveralHashChunks() {
+        CompactMessageStore store = new CompactMessageStore(HashStrategy.MURMUR3_128);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 150_000; i++) messages.add(msg("id" + i, "t" + i, Message.Flag.STORED));
+        store.addAll(messages);
+        assertEquals(150_000, store.size());
+        for (int i = 0; i < messages.size(); i += 9_973) {
+            Message m = messages.get(i);
+            assertEquals(m.getText(), store.findByHash(m.getHash()).orElseThrow().getText());
+        }
+        assertEquals(messages.get(149_999).getHash(), store.getStoredMessages().get(149_999).getHash());
+    }
+}
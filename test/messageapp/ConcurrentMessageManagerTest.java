@@ -0,0 +1,141 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentMessageManagerTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 3000;
+    private static final int BATCH = 50;
+
+    private static Message msg(String id, String recipient, Message.Flag flag) {
+        return new Message(id, "sender", recipient, "text " + id, flag);
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> out = new ArrayList<>();
+        for (Message m : messages) out.add(m.getMessageId());
+        return out;
+    }
+
+    @Test
+    public void mergedResultsComeBackInAddOrder() {
+        ConcurrentMessageManager mgr = new ConcurrentMessageManager(HashStrategy.SHA_256, 8);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Message m = msg("m" + i, "+2782000" + i, Message.Flag.SENT);
+            if (i % 3 == 0) mgr.addMessage(m);
+            else mgr.addAll(Collections.singletonList(m));
+            expected.add(m.getMessageId());
+        }
+        assertEquals(expected, ids(mgr.getSentMessages()));
+        assertEquals(expected, mgr.getMessageIDs());
+        assertEquals(expected.subList(10, 15), ids(mgr.findBySender("sender", Message.Flag.SENT, 10, 5)));
+
+        assertTrue(mgr.deleteByHash(mgr.getSentMessages().get(0).getHash()));
+        assertEquals(expected.subList(1, 40), ids(mgr.getSentMessages()));
+    }
+
+    @Test
+    public void findByMessageIdPrefersEarliestWithinAFlag() {
+        ConcurrentMessageManager mgr = new ConcurrentMessageManager(HashStrategy.SHA_256, 16);
+        Message stored = msg("dup", "+27820000001", Message.Flag.STORED);
+        Message first = msg("dup", "+27820000002", Message.Flag.SENT);
+        Message second = msg("dup", "+27820000003", Message.Flag.SENT);
+        mgr.addAll(Arrays.asList(stored, first, second));
+        assertSame(first, mgr.findByMessageId("dup").orElseThrow());
+
+        mgr.deleteByHash(first.getHash());
+        assertSame(second, mgr.findByMessageId("dup").orElseThrow());
+    }
+
+    @Test
+    public void sameInstanceAddedTwiceKeepsBothPlaces() {
+        ConcurrentMessageManager mgr = new ConcurrentMessageManager(HashStrategy.SHA_256, 4);
+        Message a = msg("a", "+27820000001", Message.Flag.SENT);
+        Message b = msg("b", "+27820000002", Message.Flag.SENT);
+        mgr.addMessage(a);
+        mgr.addMessage(b);
+        mgr.addMessage(a);
+        assertEquals(Arrays.asList("a", "b", "a"), ids(mgr.getSentMessages()));
+    }
+
+    /**
+     * Producers add concurrently while readers take snapshots. A producer's next single add
+     * starts after its previous one returned, so every snapshot must hold a gap-free prefix
+     * of each producer's SENT messages, in order; batched STORED adds may show part of a
+     * batch but never out of order.
+     */
+    @Test
+    public void snapshotsSeeEachProducersAddsInOrder() throws Exception {
+        ConcurrentMessageManager mgr = new ConcurrentMessageManager(HashStrategy.SHA_256, 8);
+        ExecutorService pool = Executors.newFixedThreadPool(PRODUCERS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        try {
+            List<Future<?>> producers = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                int producer = p;
+                producers.add(pool.submit(() -> {
+                    start.await();
+                    List<Message> batch = new ArrayList<>();
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        mgr.addMessage(msg(producer + "-" + i, "+2783" + producer + i, Message.Flag.SENT));
+                        batch.add(msg(producer + "-" + i, "+2784" + producer + i, Message.Flag.STORED));
+                        if (batch.size() == BATCH) {
+                            mgr.addAll(batch);
+                            batch = new ArrayList<>();
+                        }
+                    }
+                    mgr.addAll(batch);
+                    return null;
+                }));
+            }
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    int snapshots = 0;
+                    do {
+                        checkPrefixes(mgr.getSentMessages(), true);
+                        checkPrefixes(mgr.getStoredMessages(), false);
+                        snapshots++;
+                    } while (!done.get());
+                    return snapshots;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : producers) f.get(60, TimeUnit.SECONDS);
+            done.set(true);
+            for (Future<Integer> f : readers) assertTrue(f.get(60, TimeUnit.SECONDS) > 0);
+        } finally {
+            done.set(true);
+            pool.shutdownNow();
+        }
+
+        assertEquals(PRODUCERS * PER_PRODUCER, mgr.getSentMessages().size());
+        assertEquals(PRODUCERS * PER_PRODUCER, mgr.getStoredMessages().size());
+        checkPrefixes(mgr.getSentMessages(), true);
+        assertEquals(PRODUCERS * PER_PRODUCER, mgr.getMessageIDs().size());
+        assertEquals(2 * PRODUCERS * PER_PRODUCER, mgr.getMessageHashes().size());
+        assertEquals(Message.Flag.SENT, mgr.findByMessageId("0-0").orElseThrow().getFlag());
+    }
+
+    private static void checkPrefixes(List<Message> snapshot, boolean gapFree) {
+        int[] next = new int[PRODUCERS];
+        for (Message m : snapshot) {
+            String[] parts = m.getMessageId().split("-");
+            int producer = Integer.parseInt(parts[0]);
+            int i = Integer.parseInt(parts[1]);
+            if (gapFree) assertEquals(m.getMessageId(), next[producer], i);
+            else assertTrue(m.getMessageId(), i >= next[producer]);
+            next[producer] = i + 1;
+        }
+    }
+}
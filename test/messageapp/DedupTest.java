@@ -0,0 +1,180 @@
+package messageapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DedupTest {
+
+    private Path logFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("dedup", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(logFile);
+    }
+
+    private static Message message(int i, Message.Flag flag) {
+        return new Message("id" + i, "+2783" + i % 7, "+2782" + i % 11, "text " + i, flag);
+    }
+
+    @Test
+    public void rejectDropsLaterCopiesOnly() {
+        MessageManager mgr = new MessageManager();
+        mgr.addMessage(message(1, Message.Flag.SENT));
+        mgr.addMessage(message(1, Message.Flag.SENT));
+        mgr.setDedupPolicy(DedupPolicy.REJECT, 100);
+
+        // duplicates stored before dedup was switched on stay
+        assertEquals(2, mgr.getSentMessages().size());
+        assertFalse(mgr.addMessage(message(1, Message.Flag.STORED)));
+        assertTrue(mgr.addMessage(message(2, Message.Flag.SENT)));
+        assertEquals(1, mgr.getDuplicatesSeen());
+        assertEquals(3, mgr.getSentMessages().size());
+        assertTrue(mgr.getStoredMessages().isEmpty());
+
+        mgr.setDedupPolicy(DedupPolicy.KEEP_ALL, 0);
+        assertTrue(mgr.addMessage(message(2, Message.Flag.SENT)));
+        assertEquals(1, mgr.getDuplicatesSeen());
+    }
+
+    @Test
+    public void mergeMovesTheStoredMessageToTheIncomingFlag() {
+        MessageManager mgr = new MessageManager();
+        mgr.setDedupPolicy(DedupPolicy.MERGE, 100);
+        Message stored = message(1, Message.Flag.STORED);
+        mgr.addMessage(stored);
+        mgr.addMessage(message(2, Message.Flag.SENT));
+
+        assertFalse(mgr.addMessage(message(1, Message.Flag.STORED)));
+        assertSame(stored, mgr.getStoredMessages().get(0));
+        assertFalse(mgr.addMessage(message(1, Message.Flag.SENT)));
+        assertEquals(2, mgr.getDuplicatesSeen());
+        assertTrue(mgr.getStoredMessages().isEmpty());
+        // moved to the end of the sent list, same instance
+        assertEquals(2, mgr.getSentMessages().size());
+        assertSame(stored, mgr.getSentMessages().get(1));
+        assertEquals(Message.Flag.SENT, stored.getFlag());
+        assertSame(stored, mgr.findByMessageId("id1").orElseThrow());
+    }
+
+    @Test
+    public void addAllCountsDuplicatesWithinAndAcrossBatches() {
+        MessageManager mgr = new MessageManager();
+        mgr.setDedupPolicy(DedupPolicy.MERGE, 100);
+        assertEquals(2, mgr.addAll(Arrays.asList(
+                message(1, Message.Flag.STORED), message(2, Message.Flag.STORED), message(1, Message.Flag.STORED))));
+        assertEquals(1, mgr.getDuplicatesSeen());
+
+        assertEquals(1, mgr.addAll(Arrays.asList(
+                message(2, Message.Flag.SENT), message(3, Message.Flag.SENT), message(3, Message.Flag.DISREGARD))));
+        assertEquals(3, mgr.getDuplicatesSeen());
+        // id2 merges into SENT; id3 is added as SENT, then merged by its in-batch copy
+        assertEquals(Collections.singletonList("id2"), ids(mgr.getSentMessages()));
+        assertEquals(Collections.singletonList("id1"), ids(mgr.getStoredMessages()));
+        assertEquals(Collections.singletonList("id3"), ids(mgr.getDisregardedMessages()));
+        assertEquals(3, mgr.getMessageHashes().size());
+    }
+
+    @Test
+    public void replayIgnoresThePolicyAndDedupResumesAfterIt() throws IOException {
+        MessageManager mgr = new MessageManager();
+        try (MessageLog log = new MessageLog(logFile)) {
+            mgr.attachLog(log);
+            mgr.addMessage(message(1, Message.Flag.STORED));
+            mgr.addMessage(message(1, Message.Flag.STORED));
+            mgr.setDedupPolicy(DedupPolicy.MERGE, 100);
+            mgr.addAll(Arrays.asList(message(1, Message.Flag.SENT), message(2, Message.Flag.DISREGARD)));
+            mgr.setDedupPolicy(DedupPolicy.REJECT, 100);
+            assertFalse(mgr.addMessage(message(2, Message.Flag.SENT)));
+        }
+
+        MessageManager restored = new MessageManager();
+        restored.setDedupPolicy(DedupPolicy.REJECT, 100);
+        try (MessageLog log = new MessageLog(logFile)) {
+            restored.attachLog(log);
+            assertEquals(hashes(mgr.getSentMessages()), hashes(restored.getSentMessages()));
+            assertEquals(hashes(mgr.getStoredMessages()), hashes(restored.getStoredMessages()));
+            assertEquals(hashes(mgr.getDisregardedMessages()), hashes(restored.getDisregardedMessages()));
+            assertEquals(0, restored.getDuplicatesSeen());
+
+            // the replayed hashes are in the filter
+            assertFalse(restored.addMessage(message(1, Message.Flag.SENT)));
+            assertFalse(restored.addMessage(message(2, Message.Flag.SENT)));
+            assertEquals(2, restored.getDuplicatesSeen());
+            assertTrue(restored.addMessage(message(3, Message.Flag.SENT)));
+        }
+    }
+
+    @Test
+    public void deletedHashCostsAProbeButIsAddedAgain() {
+        MessageManager mgr = new MessageManager();
+        mgr.setDedupPolicy(DedupPolicy.REJECT, 100);
+        Message m = message(1, Message.Flag.SENT);
+        mgr.addMessage(m);
+        assertTrue(mgr.deleteByHash(m.getHash()));
+        assertEquals(0, mgr.getBloomFalsePositives());
+
+        assertTrue(mgr.addMessage(message(1, Message.Flag.SENT)));
+        assertEquals(1, mgr.getBloomFalsePositives());
+        assertEquals(0, mgr.getDuplicatesSeen());
+    }
+
+    @Test
+    public void saturatedFilterIsRebuiltLarger() {
+        MessageManager mgr = new MessageManager();
+        mgr.setDedupPolicy(DedupPolicy.REJECT, 1);  // sized for one batch, far below what follows
+        List<Message> first = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) first.add(message(i, Message.Flag.SENT));
+        assertEquals(40_000, mgr.addAll(first));
+
+        // no false negatives across the rebuilds
+        List<Message> again = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) again.add(message(i, Message.Flag.STORED));
+        assertEquals(0, mgr.addAll(again));
+        assertEquals(40_000, mgr.getDuplicatesSeen());
+
+        // a filter still sized for the first batch would answer "maybe" for almost everything
+        long before = mgr.getBloomFalsePositives();
+        for (int i = 40_000; i < 50_000; i++) assertTrue(mgr.addMessage(message(i, Message.Flag.SENT)));
+        assertTrue(mgr.getBloomFalsePositives() - before < 500);
+    }
+
+    @Test
+    public void bloomFilterSaturatesPastItsCapacity() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        assertEquals(100, filter.getCapacity());
+        for (int i = 0; i < 100; i++) filter.put("hash" + i);
+        assertFalse(filter.isSaturated());
+        filter.put("hash100");
+        assertTrue(filter.isSaturated());
+        for (int i = 0; i <= 100; i++) assertTrue(filter.mightContain("hash" + i));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) if (filter.mightContain("other" + i)) falsePositives++;
+        assertTrue(falsePositives < 500);
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> out = new ArrayList<>();
+        for (Message m : messages) out.add(m.getMessageId());
+        return out;
+    }
+
+    private static List<String> hashes(List<Message> messages) {
+        List<String> out = new ArrayList<>();
+        for (Message m : messages) out.add(m.getHash());
+        return out;
+    }
+}
@@ -0,0 +1,58 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HashingTest {
+
+    private static long[] murmur(String s, long seed) {
+        return Hashing.murmur3x64_128(s.getBytes(StandardCharsets.UTF_8), seed);
+    }
+
+    /** Reference vectors (seed, h1, h2) of MurmurHash3_x64_128 as published with Guava's tests. */
+    @Test
+    public void murmur3MatchesReferenceVectors() {
+        assertArrayEquals(new long[]{0x629942693e10f867L, 0x92db0b82baeb5347L}, murmur("hell", 0));
+        assertArrayEquals(new long[]{0xa78ddff5adae8d10L, 0x128900ef20900135L}, murmur("hello", 1));
+        assertArrayEquals(new long[]{0x8a486b23f422e826L, 0xf962a2c58947765fL}, murmur("hello ", 2));
+        assertArrayEquals(new long[]{0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L},
+                murmur("The quick brown fox jumps over the lazy dog", 0));
+        assertArrayEquals(new long[]{0, 0}, murmur("", 0));
+    }
+
+    @Test
+    public void murmur3HexIsLittleEndianH1ThenH2() {
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", Hashing.murmur3Hex("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void murmur3CoversEveryTailLength() {
+        // each length 0..33 hits a different tail case; changing any byte must change the hash
+        StringBuilder sb = new StringBuilder();
+        for (int len = 0; len < 34; len++) {
+            String s = sb.toString();
+            for (int i = 0; i < len; i++) {
+                char[] c = s.toCharArray();
+                c[i] ^= 1;
+                assertFalse("len " + len + " byte " + i, Arrays.equals(murmur(s, 0), murmur(new String(c), 0)));
+            }
+            sb.append((char) ('a' + len % 26));
+        }
+    }
+
+    @Test
+    public void sha256MatchesKnownDigest() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", Hashing.sha256Hex("abc"));
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", Hashing.sha256Hex(""));
+    }
+
+    @Test
+    public void strategiesAgreeWithHashing() {
+        assertEquals(Hashing.sha256Hex("x|y"), HashStrategy.SHA_256.hash("x|y"));
+        assertEquals(Hashing.murmur3Hex("x|y"), HashStrategy.MURMUR3_128.hash("x|y"));
+    }
+}
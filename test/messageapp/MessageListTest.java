@@ -0,0 +1,113 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** Checks MessageList against an ArrayList holding the same operations. */
+public class MessageListTest {
+
+    private static Message message(int i) {
+        return new Message("id" + i, "s", "r", "text " + i, Message.Flag.SENT);
+    }
+
+    @Test
+    public void randomAddRemoveMatchesArrayList() {
+        randomAddRemove(new MessageList());
+    }
+
+    @Test
+    public void smallInitialCapacityGrows() {
+        randomAddRemove(new MessageList(1));  // as used for index buckets
+    }
+
+    private static void randomAddRemove(MessageList list) {
+        Random rnd = new Random(42);
+        List<Message> model = new ArrayList<>();
+        List<Message> pool = new ArrayList<>();
+        for (int i = 0; i < 200; i++) pool.add(message(i));
+
+        for (int step = 0; step < 20_000; step++) {
+            Message m = pool.get(rnd.nextInt(pool.size()));
+            if (rnd.nextInt(3) > 0) {
+                list.add(m);
+                model.add(m);
+            } else {
+                int expected = model.indexOf(m);  // Message has identity equality
+                if (expected >= 0) model.remove(expected);
+                assertEquals("removed index", expected, list.removeMessage(m));
+            }
+            if (step % 97 == 0) assertSameContents(model, list);
+        }
+        assertSameContents(model, list);
+    }
+
+    @Test
+    public void massRemovalSqueezesAndKeepsOrder() {
+        MessageList list = new MessageList();
+        List<Message> model = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            Message m = message(i);
+            list.add(m);
+            model.add(m);
+        }
+        // remove from the front so holes outnumber live entries and force squeezes
+        for (int i = 0; i < 4_000; i++) {
+            Message m = model.remove(0);
+            assertEquals(0, list.removeMessage(m));
+        }
+        assertSameContents(model, list);
+        Message tail = message(-1);
+        list.add(tail);
+        model.add(tail);
+        assertSameContents(model, list);
+    }
+
+    @Test
+    public void sameInstanceTwiceRemovesEarliestFirst() {
+        MessageList list = new MessageList();
+        Message x = message(1), y = message(2);
+        list.add(x);
+        list.add(y);
+        list.add(x);
+        assertEquals(3, list.size());
+        assertEquals(0, list.removeMessage(x));
+        assertSame(y, list.get(0));
+        assertSame(x, list.get(1));
+        assertEquals(1, list.removeMessage(x));
+        assertEquals(-1, list.removeMessage(x));
+        assertEquals(1, list.size());
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailsFastOnModification() {
+        MessageList list = new MessageList();
+        list.add(message(1));
+        list.add(message(2));
+        Iterator<Message> it = list.iterator();
+        it.next();
+        list.add(message(3));
+        it.next();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfRangeThrows() {
+        MessageList list = new MessageList();
+        list.add(message(1));
+        list.removeMessage(list.get(0));
+        list.get(0);
+    }
+
+    private static void assertSameContents(List<Message> model, MessageList list) {
+        assertEquals(model.size(), list.size());
+        for (int i = 0; i < model.size(); i++) assertSame("index " + i, model.get(i), list.get(i));
+        Iterator<Message> it = list.iterator();
+        for (Message m : model) {
+            assertTrue(it.hasNext());
+            assertSame(m, it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+}
@@ -0,0 +1,164 @@
+package messageapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MessageLogTest {
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("messagelog");
+        file = dir.resolve("messages.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    private static Message message(int i, Message.Flag flag) {
+        return new Message("id" + i, "+2783" + i % 7, "+2782" + i % 11, "text " + i, flag);
+    }
+
+    private MessageManager replay() throws IOException {
+        MessageManager mgr = new MessageManager();
+        try (MessageLog log = new MessageLog(file)) {
+            mgr.attachLog(log);
+        }
+        return mgr;
+    }
+
+    @Test
+    public void replayRestoresAddsAndDeletes() throws IOException {
+        MessageManager mgr = new MessageManager();
+        try (MessageLog log = new MessageLog(file)) {
+            mgr.attachLog(log);
+            for (int i = 0; i < 100; i++) mgr.addMessage(message(i, Message.Flag.values()[i % 3]));
+            for (int i = 0; i < 100; i += 10) assertTrue(mgr.deleteByHash(message(i, Message.Flag.SENT).getHash()));
+        }
+        MessageManager restored = replay();
+        assertEquals(mgr.getMessageHashes(), restored.getMessageHashes());
+        assertEquals(mgr.getMessageIDs(), restored.getMessageIDs());
+        assertEquals(hashes(mgr.getStoredMessages()), hashes(restored.getStoredMessages()));
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        writeMessages(10);
+        long size = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size - 3);  // crash mid-way through the last record
+        }
+        MessageManager restored = replay();
+        assertEquals(9, restored.getMessageHashes().size());
+        assertTrue(Files.size(file) < size - 3);
+
+        // the log keeps working after truncation
+        MessageManager again = new MessageManager();
+        try (MessageLog log = new MessageLog(file)) {
+            again.attachLog(log);
+            again.addMessage(message(99, Message.Flag.SENT));
+        }
+        assertEquals(10, replay().getMessageHashes().size());
+    }
+
+    @Test
+    public void corruptRecordEndsReplay() throws IOException {
+        writeMessages(10);
+        long size = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(size - 2);
+            raf.write(raf.read() ^ 0xff);  // flip payload bits; CRC no longer matches
+        }
+        assertEquals(9, replay().getMessageHashes().size());
+    }
+
+    @Test
+    public void garbageAfterValidRecordsIsDropped() throws IOException {
+        writeMessages(5);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(-7);
+            raf.writeInt(0);
+        }
+        assertEquals(5, replay().getMessageHashes().size());
+    }
+
+    @Test
+    public void compactionKeepsAddOrder() throws IOException {
+        MessageManager mgr = new MessageManager();
+        Random rnd = new Random(7);
+        List<Message> added = new ArrayList<>();
+        try (MessageLog log = new MessageLog(file)) {
+            mgr.attachLog(log);
+            for (int i = 0; i < 3_000; i++) {
+                Message m = message(i, Message.Flag.values()[rnd.nextInt(3)]);
+                mgr.addMessage(m);
+                added.add(m);
+            }
+            for (int i = 0; i < 2_500; i++) mgr.deleteByHash(added.get(rnd.nextInt(added.size())).getHash());
+            long before = log.getRecordCount();
+            log.compact(mgr);
+            assertTrue(log.getRecordCount() < before);
+            mgr.addMessage(message(5_000, Message.Flag.STORED));
+        }
+        MessageManager restored = replay();
+        assertEquals(mgr.getMessageHashes(), restored.getMessageHashes());
+        assertEquals(hashes(mgr.getSentMessages()), hashes(restored.getSentMessages()));
+        assertEquals(hashes(mgr.getStoredMessages()), hashes(restored.getStoredMessages()));
+        assertEquals(hashes(mgr.getDisregardedMessages()), hashes(restored.getDisregardedMessages()));
+    }
+
+    @Test
+    public void mergeReplaysAsFlagChangeOfOneMessage() throws IOException {
+        MessageManager mgr = new MessageManager();
+        try (MessageLog log = new MessageLog(file)) {
+            mgr.attachLog(log);
+            mgr.addMessage(message(1, Message.Flag.STORED));
+            mgr.addMessage(message(1, Message.Flag.STORED));  // kept: dedup is off
+            mgr.setDedupPolicy(DedupPolicy.MERGE, 100);
+            assertFalse(mgr.addMessage(message(1, Message.Flag.SENT)));
+        }
+        assertEquals(1, mgr.getSentMessages().size());
+        assertEquals(1, mgr.getStoredMessages().size());
+
+        MessageManager restored = new MessageManager();
+        restored.setDedupPolicy(DedupPolicy.REJECT, 100);  // replay ignores the policy
+        try (MessageLog log = new MessageLog(file)) {
+            restored.attachLog(log);
+        }
+        assertEquals(1, restored.getSentMessages().size());
+        assertEquals(1, restored.getStoredMessages().size());
+        assertEquals(mgr.getMessageHashes(), restored.getMessageHashes());
+    }
+
+    private void writeMessages(int n) throws IOException {
+        MessageManager mgr = new MessageManager();
+        try (MessageLog log = new MessageLog(file)) {
+            mgr.attachLog(log);
+            for (int i = 0; i < n; i++) mgr.addMessage(message(i, Message.Flag.SENT));
+        }
+    }
+
+    private static List<String> hashes(List<Message> messages) {
+        List<String> out = new ArrayList<>();
+        for (Message m : messages) out.add(m.getHash());
+        return out;
+    }
+}
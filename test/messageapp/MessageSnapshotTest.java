@@ -0,0 +1,106 @@
+package messageapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MessageSnapshotTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("messages", ".snap");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void roundTripSha256() throws IOException {
+        roundTrip(HashStrategy.SHA_256);
+    }
+
+    @Test
+    public void roundTripMurmur3() throws IOException {
+        roundTrip(HashStrategy.MURMUR3_128);
+    }
+
+    private void roundTrip(HashStrategy strategy) throws IOException {
+        MessageManager mgr = new MessageManager(strategy);
+        for (int i = 0; i < 1_000; i++) {
+            mgr.addMessage(new Message("id" + i, "+2783" + i % 13, "+2782" + i % 17, "text \u00e9 " + i,
+                    Message.Flag.values()[i % 3]));
+        }
+        mgr.addMessage(new Message(null, null, null, null, Message.Flag.STORED));  // nulls survive
+        assertEquals(1_001, MessageSnapshot.write(mgr, file));
+
+        MessageManager loaded = new MessageManager(strategy);
+        assertEquals(1_001, MessageSnapshot.read(file, loaded));
+        assertSameMessages(mgr.getSentMessages(), loaded.getSentMessages());
+        assertSameMessages(mgr.getStoredMessages(), loaded.getStoredMessages());
+        assertSameMessages(mgr.getDisregardedMessages(), loaded.getDisregardedMessages());
+        assertEquals(strategy, loaded.getStoredMessages().get(0).getHashStrategy());
+    }
+
+    @Test
+    public void loadingIntoOtherStrategyRehashes() throws IOException {
+        MessageManager mgr = new MessageManager(HashStrategy.SHA_256);
+        mgr.addMessage(new Message("id", "s", "r", "t", Message.Flag.SENT));
+        MessageSnapshot.write(mgr, file);
+        MessageManager loaded = new MessageManager(HashStrategy.MURMUR3_128);
+        MessageSnapshot.read(file, loaded);
+        assertEquals(HashStrategy.MURMUR3_128.hash("id|s|r|t"), loaded.getSentMessages().get(0).getHash());
+    }
+
+    @Test
+    public void nonHexHashIsKept() throws IOException {
+        MessageManager mgr = new MessageManager();
+        mgr.addAll(Collections.singletonList(
+                Message.restore("id", "s", "r", "t", Message.Flag.SENT, HashStrategy.SHA_256, "not-hex")));
+        MessageSnapshot.write(mgr, file);
+        MessageManager loaded = new MessageManager();
+        MessageSnapshot.read(file, loaded);
+        assertEquals("not-hex", loaded.getSentMessages().get(0).getHash());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSnapshotFails() throws IOException {
+        MessageManager mgr = new MessageManager();
+        for (int i = 0; i < 10; i++) mgr.addMessage(new Message("id" + i, "s", "r", "t", Message.Flag.SENT));
+        MessageSnapshot.write(mgr, file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        MessageSnapshot.read(file, new MessageManager());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+        MessageSnapshot.read(file, new MessageManager());
+    }
+
+    private static void assertSameMessages(List<Message> expected, List<Message> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Message e = expected.get(i), a = actual.get(i);
+            assertEquals(e.getMessageId(), a.getMessageId());
+            assertEquals(e.getSender(), a.getSender());
+            assertEquals(e.getRecipient(), a.getRecipient());
+            assertEquals(e.getText(), a.getText());
+            assertEquals(e.getFlag(), a.getFlag());
+            assertEquals(e.getHash(), a.getHash());
+        }
+    }
+}
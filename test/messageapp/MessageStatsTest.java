@@ -0,0 +1,94 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MessageStatsTest {
+
+    private static Message msg(String id, String sender, String recipient, String text, Message.Flag flag) {
+        return new Message(id, sender, recipient, text, flag);
+    }
+
+    @Test
+    public void countsAndLengthsFollowAddsAndDeletes() {
+        MessageManager mgr = new MessageManager();
+        Message a = msg("a", "s1", "r1", "xx", Message.Flag.SENT);
+        Message b = msg("b", "s1", "r2", "xxxx", Message.Flag.SENT);
+        Message c = msg("c", "s2", "r1", "xxxxxx", Message.Flag.STORED);
+        mgr.addMessage(a);
+        mgr.addAll(Arrays.asList(b, c));
+        MessageStats stats = mgr.getStats();
+
+        assertEquals(2, stats.getCount(Message.Flag.SENT));
+        assertEquals(3, stats.getTotalCount());
+        assertEquals(6, stats.getTotalTextLength(Message.Flag.SENT));
+        assertEquals(3.0, stats.getAverageTextLength(Message.Flag.SENT), 1e-9);
+        assertSame(b, stats.getLongest(Message.Flag.SENT).orElseThrow());
+        assertEquals(2, stats.getCountBySender("s1"));
+        assertEquals(2, stats.getCountByRecipient("r1"));
+        assertEquals(2, stats.getDistinctSenders());
+
+        mgr.deleteByHash(b.getHash());
+        assertEquals(1, stats.getCount(Message.Flag.SENT));
+        assertSame(a, stats.getLongest(Message.Flag.SENT).orElseThrow());
+        assertEquals(1, stats.getCountBySender("s1"));
+        assertEquals(1, stats.getDistinctRecipients());
+        assertEquals(0, stats.getCount(Message.Flag.DISREGARD));
+        assertFalse(stats.getLongest(Message.Flag.DISREGARD).isPresent());
+    }
+
+    @Test
+    public void longestTieGoesToEarliestAndTopListIsOrdered() {
+        MessageManager mgr = new MessageManager();
+        Message first = msg("1", "s", "r", "abc", Message.Flag.SENT);
+        Message second = msg("2", "s", "r", "xyz", Message.Flag.SENT);
+        Message shorter = msg("3", "s", "r", "a", Message.Flag.SENT);
+        mgr.addAll(Arrays.asList(shorter, first, second));
+        MessageStats stats = mgr.getStats();
+
+        assertSame(first, stats.getLongest(Message.Flag.SENT).orElseThrow());
+        assertEquals(Arrays.asList(first, second, shorter), stats.getTopLongest(Message.Flag.SENT, 10));
+        assertEquals(Collections.singletonList(first), stats.getTopLongest(Message.Flag.SENT, 1));
+    }
+
+    @Test
+    public void sameInstanceAddedTwiceIsCountedTwice() {
+        for (boolean batch : new boolean[]{false, true}) {
+            MessageManager mgr = new MessageManager();
+            Message m = msg("id", "s", "r", "text", Message.Flag.SENT);
+            if (batch) {
+                mgr.addAll(Arrays.asList(m, m));
+            } else {
+                mgr.addMessage(m);
+                mgr.addMessage(m);
+            }
+            MessageStats stats = mgr.getStats();
+            assertEquals(2, stats.getCount(Message.Flag.SENT));
+            assertEquals(Arrays.asList(m, m), stats.getTopLongest(Message.Flag.SENT, 5));
+
+            assertTrue(mgr.deleteByHash(m.getHash()));
+            assertTrue(mgr.getSentMessages().isEmpty());
+            assertEquals(0, stats.getCount(Message.Flag.SENT));
+            assertEquals(0, stats.getTotalCount());
+            assertEquals(0, stats.getTotalTextLength(Message.Flag.SENT));
+            assertFalse(stats.getLongest(Message.Flag.SENT).isPresent());
+        }
+    }
+
+    @Test
+    public void mergeMovesStatsToTheNewFlag() {
+        MessageManager mgr = new MessageManager();
+        mgr.setDedupPolicy(DedupPolicy.MERGE, 100);
+        Message stored = msg("id", "s", "r", "text", Message.Flag.STORED);
+        mgr.addMessage(stored);
+        assertFalse(mgr.addMessage(msg("id", "s", "r", "text", Message.Flag.SENT)));
+
+        MessageStats stats = mgr.getStats();
+        assertEquals(0, stats.getCount(Message.Flag.STORED));
+        assertEquals(1, stats.getCount(Message.Flag.SENT));
+        assertSame(stored, stats.getLongest(Message.Flag.SENT).orElseThrow());
+    }
+}
@@ -0,0 +1,119 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ShardedMessageManagerTest {
+
+    private static Message msg(String id, String sender, String recipient, String text, Message.Flag flag) {
+        return new Message(id, sender, recipient, text, flag);
+    }
+
+    /** Recipients spread over every shard, added singly and in batches. */
+    private static List<Message> sample(int n) {
+        List<Message> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Message.Flag flag = i % 4 == 3 ? Message.Flag.STORED : Message.Flag.SENT;
+            out.add(msg("m" + i, "s" + (i % 3), "+2782" + i, "text " + i, flag));
+        }
+        return out;
+    }
+
+    private static void addMixed(ShardedMessageManager sharded, MessageManager ref, List<Message> messages) {
+        for (int i = 0; i < messages.size(); i += 5) {
+            List<Message> batch = messages.subList(i, Math.min(i + 5, messages.size()));
+            if (i % 10 == 0) {
+                for (Message m : batch) sharded.addMessage(m);
+            } else {
+                sharded.addAll(batch);
+            }
+            ref.addAll(batch);
+        }
+    }
+
+    @Test
+    public void mergedResultsMatchASingleManager() throws IOException {
+        ShardedMessageManager sharded = new ShardedMessageManager(4);
+        MessageManager ref = new MessageManager();
+        addMixed(sharded, ref, sample(60));
+
+        assertEquals(ref.getSentMessages(), sharded.getSentMessages());
+        assertEquals(ref.getStoredMessages(), sharded.getStoredMessages());
+        assertEquals(ref.getMessageHashes(), sharded.getMessageHashes());
+        assertEquals(ref.getMessageIDs(), sharded.getMessageIDs());
+        assertEquals(ref.findBySender("s1", Message.Flag.SENT, 3, 6), sharded.findBySender("s1", Message.Flag.SENT, 3, 6));
+        assertEquals(ref.getSentMessagesReport(), sharded.getSentMessagesReport());
+
+        for (String sender : new String[]{null, "s2"}) {
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            assertEquals(ref.writeSentMessagesReport(expected, sender, null, 7),
+                    sharded.writeSentMessagesReport(actual, sender, null, 7));
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void tiesGoToTheEarliestAdded() {
+        ShardedMessageManager sharded = new ShardedMessageManager(8);
+        Message stored = msg("dup", "s", "+27820000001", "same", Message.Flag.STORED);
+        Message first = msg("dup", "s", "+27820000002", "same", Message.Flag.SENT);
+        Message second = msg("dup", "s", "+27820000003", "same", Message.Flag.SENT);
+        assertTrue(sharded.shardOf(first.getRecipient()) != sharded.shardOf(second.getRecipient()));
+        // put the later message on the lower shard
+        if (sharded.shardOf(first.getRecipient()) < sharded.shardOf(second.getRecipient())) {
+            Message t = first;
+            first = second;
+            second = t;
+        }
+        sharded.addMessage(stored);
+        sharded.addMessage(first);
+        sharded.addMessage(second);
+
+        assertSame(first, sharded.findByMessageId("dup").orElseThrow());
+        assertSame(first, sharded.getLongestSentMessage().orElseThrow());
+        assertEquals(Arrays.asList(first, second), sharded.getSentMessages());
+
+        assertTrue(sharded.deleteByHash(first.getHash()));
+        assertSame(second, sharded.findByMessageId("dup").orElseThrow());
+    }
+
+    @Test
+    public void loadedShardsFollowWhatWasAlreadyThere() throws IOException {
+        Path dir = Files.createTempDirectory("shards");
+        try {
+            ShardedMessageManager saved = new ShardedMessageManager(3);
+            saved.addAll(sample(20));
+            saved.save(dir);
+
+            ShardedMessageManager loaded = new ShardedMessageManager(3);
+            Message early = msg("early", "s", "+27829999999", "first", Message.Flag.SENT);
+            loaded.addMessage(early);
+            assertEquals(20, loaded.load(dir));
+
+            List<Message> sent = loaded.getSentMessages();
+            assertSame(early, sent.get(0));
+            assertEquals(saved.getSentMessages().size() + 1, sent.size());
+            // each shard keeps its own order after the load
+            for (int s = 0; s < 3; s++) {
+                List<String> expected = new ArrayList<>();
+                List<String> actual = new ArrayList<>();
+                for (Message m : saved.getSentMessages()) if (saved.shardOf(m.getRecipient()) == s) expected.add(m.getMessageId());
+                for (Message m : sent) if (m != early && loaded.shardOf(m.getRecipient()) == s) actual.add(m.getMessageId());
+                assertEquals(expected, actual);
+            }
+            StringBuilder report = new StringBuilder();
+            assertEquals(sent.size(), loaded.writeSentMessagesReport(report, null, null, Long.MAX_VALUE));
+            assertEquals(loaded.getSentMessagesReport(), report.toString());
+        } finally {
+            for (Path p : Files.list(dir).toArray(Path[]::new)) Files.delete(p);
+            Files.delete(dir);
+        }
+    }
+}
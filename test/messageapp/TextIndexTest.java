@@ -0,0 +1,55 @@
+package messageapp;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TextIndexTest {
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> out = new ArrayList<>();
+        for (Message m : messages) out.add(m.getMessageId());
+        return out;
+    }
+
+    @Test
+    public void everyWordMustMatch() {
+        MessageManager mgr = new MessageManager();
+        mgr.enableTextSearch(false);
+        mgr.addMessage(new Message("1", "s", "r", "meet at the station", Message.Flag.SENT));
+        mgr.addMessage(new Message("2", "s", "r", "meet me later", Message.Flag.SENT));
+        mgr.addMessage(new Message("3", "s", "r", "Station closed", Message.Flag.STORED));
+
+        assertEquals(Collections.singletonList("1"), ids(mgr.searchText("meet station", 10)));
+        assertEquals(new HashSet<>(Arrays.asList("1", "3")), new HashSet<>(ids(mgr.searchText("STATION", 10))));
+        assertTrue(mgr.searchText("nowhere", 10).isEmpty());
+    }
+
+    @Test
+    public void fragmentMustOccurWithinOneToken() {
+        MessageManager mgr = new MessageManager();
+        mgr.enableTextSearch(true);
+        // the grams of "12345" are spread over the sender and recipient, but neither contains it
+        mgr.addMessage(new Message("a", "+27001234000", "+27993450000", "hello", Message.Flag.SENT));
+        mgr.addMessage(new Message("b", "+27838884567", "+27012345999", "hello", Message.Flag.SENT));
+        mgr.addMessage(new Message("c", "dev", "+27820000000", "call 0612345 now", Message.Flag.STORED));
+
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), new HashSet<>(ids(mgr.searchText("12345", 10))));
+        assertEquals(Collections.singletonList("b"), ids(mgr.searchText("8884", 10)));
+        assertEquals(Collections.singletonList("c"), ids(mgr.searchText("12345 call", 10)));
+    }
+
+    @Test
+    public void deletedMessagesLeaveTheIndex() {
+        MessageManager mgr = new MessageManager();
+        mgr.enableTextSearch(true);
+        Message m = new Message("x", "+27831111111", "+27822222222", "code 98765", Message.Flag.SENT);
+        mgr.addMessage(m);
+        assertEquals(1, mgr.searchText("876", 10).size());
+        mgr.deleteByHash(m.getHash());
+        assertTrue(mgr.searchText("876", 10).isEmpty());
+        assertTrue(mgr.searchText("code", 10).isEmpty());
+    }
+}
@@ -0,0 +1,139 @@
+package messageapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TieredMessageStoreTest {
+
+    private Path segment;
+
+    @Before
+    public void setUp() throws IOException {
+        segment = Files.createTempFile("messages", ".seg");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(segment);
+    }
+
+    private static Message msg(int i) {
+        return new Message("id" + (i % 500), "+2783" + i, "+2782" + (i % 50), "text " + i, Message.Flag.values()[i % 3]);
+    }
+
+    @Test
+    public void hotTierDoesNotShareInstances() throws IOException {
+        try (TieredMessageStore store = new TieredMessageStore(segment, 1 << 20)) {
+            Message m = new Message("id", "+27831", "+27820", "original", Message.Flag.SENT);
+            store.add(m);
+            String hash = m.getHash();
+            m.setText("changed by the caller");
+
+            Message found = store.findByHash(hash).orElseThrow();
+            assertEquals(1, store.getHits());
+            assertNotSame(m, found);
+            assertEquals("original", found.getText());
+            assertEquals(hash, found.getHash());
+
+            found.setFlag(Message.Flag.DISREGARD);
+            assertEquals(Message.Flag.SENT, store.findByMessageId("id").orElseThrow().getFlag());
+            assertEquals(2, store.getHits());
+        }
+    }
+
+    @Test
+    public void evictedMessagesFaultBackIn() throws IOException {
+        try (TieredMessageStore store = new TieredMessageStore(segment, 4_000)) {
+            List<String> hashes = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Message m = msg(i);
+                store.add(m);
+                hashes.add(m.getHash());
+            }
+            assertTrue(store.getHotBytes() <= 4_000);
+            assertTrue(store.getHotCount() < 200);
+            assertEquals(200 - store.getHotCount(), store.getEvictions());
+
+            // the newest are hot, the oldest went to disk
+            store.resetMetrics();
+            assertEquals("text 199", store.findByHash(hashes.get(199)).orElseThrow().getText());
+            assertEquals(1, store.getHits());
+            assertEquals("text 0", store.findByHash(hashes.get(0)).orElseThrow().getText());
+            assertEquals(1, store.getMisses());
+            // the miss made it hot again
+            assertEquals("text 0", store.findByHash(hashes.get(0)).orElseThrow().getText());
+            assertEquals(2, store.getHits());
+            assertEquals(2.0 / 3, store.getHitRate(), 1e-9);
+
+            for (int i = 0; i < 200; i++) assertEquals(hashes.get(i), store.findByHash(hashes.get(i)).orElseThrow().getHash());
+            assertTrue(store.getHotBytes() <= 4_000);
+        }
+    }
+
+    @Test
+    public void compactionRemapsEveryIndex() throws IOException {
+        for (long maxHotBytes : new long[]{0, 1 << 20}) {
+            try (TieredMessageStore store = new TieredMessageStore(segment, maxHotBytes)) {
+                List<Message> added = new ArrayList<>();
+                for (int i = 0; i < 1_000; i++) added.add(msg(i));
+                store.addAll(added);
+                long before = store.getSegmentBytes();
+                for (int i = 0; i < 1_000; i += 2) assertTrue(store.deleteByHash(added.get(i).getHash()));
+                store.compact();
+                assertTrue(store.getSegmentBytes() < before * 3 / 4);
+                assertEquals(500, store.size());
+
+                Message late = new Message("late", "+27831", "+27820", "after compaction", Message.Flag.STORED);
+                store.add(late);
+                checkLookups(store, added, late);
+            }
+        }
+    }
+
+    @Test
+    public void deletesTriggerCompaction() throws IOException {
+        try (TieredMessageStore store = new TieredMessageStore(segment, 0)) {
+            List<Message> added = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) added.add(msg(i));
+            store.addAll(added);
+            long before = store.getSegmentBytes();
+            for (int i = 0; i < 20_000; i += 2) store.deleteByHash(added.get(i).getHash());
+            assertTrue(store.getSegmentBytes() < before * 3 / 4);
+            for (int i = 1; i < 20_000; i += 2) {
+                assertEquals(added.get(i).getText(), store.findByHash(added.get(i).getHash()).orElseThrow().getText());
+            }
+        }
+    }
+
+    private static void checkLookups(TieredMessageStore store, List<Message> added, Message late) throws IOException {
+        for (int i = 0; i < added.size(); i++) {
+            Optional<Message> found = store.findByHash(added.get(i).getHash());
+            assertEquals(i % 2 == 1, found.isPresent());
+            if (found.isPresent()) assertEquals(added.get(i).getText(), found.get().getText());
+        }
+        assertEquals("after compaction", store.findByHash(late.getHash()).orElseThrow().getText());
+
+        // id17 is held by i = 17 (DISREGARD) and i = 517 (STORED), both kept
+        Message byId = store.findByMessageId("id17").orElseThrow();
+        assertEquals(Message.Flag.STORED, byId.getFlag());
+        assertEquals("text 517", byId.getText());
+
+        List<String> texts = new ArrayList<>();
+        for (Message m : store.findAllByRecipient("+278213")) texts.add(m.getText());
+        List<String> expected = new ArrayList<>();
+        for (Message.Flag flag : new Message.Flag[]{Message.Flag.SENT, Message.Flag.STORED}) {
+            for (int i = 13; i < added.size(); i += 50) {
+                if (i % 2 == 1 && added.get(i).getFlag() == flag) expected.add(added.get(i).getText());
+            }
+        }
+        assertEquals(expected, texts);
+    }
+}